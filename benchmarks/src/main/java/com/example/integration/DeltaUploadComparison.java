@@ -0,0 +1,107 @@
+package com.example.integration;
+
+import ftp.LoadTestServer;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Random;
+
+/**
+	* Grows an access log by {@code --growth} of its size for {@code --rounds} rounds and uploads it after every round
+	* to an in-process {@link LoadTestServer}, sending the whole file, the whole file gzipped, and only the appended
+	* delta. Prints the bytes on the wire and the total time of each:
+	*
+	* <pre>
+	* java -cp target/benchmarks.jar com.example.integration.DeltaUploadComparison --size=64MB --rounds=10 --growth=0.01
+	* </pre>
+	*/
+public class DeltaUploadComparison {
+
+	private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z").withZone(ZoneOffset.UTC);
+	private static final String[] PATHS = {"/", "/index.html", "/api/v1/orders", "/api/v1/orders/{id}", "/api/v1/customers/{id}", "/static/app.js", "/static/app.css", "/health"};
+	private static final String[] AGENTS = {"Mozilla/5.0 (X11; Linux x86_64)", "curl/7.68.0", "okhttp/4.9.0", "Go-http-client/1.1"};
+
+	private final Random random = new Random(42);
+	private long clock = Instant.parse("2026-10-17T00:00:00Z").getEpochSecond();
+
+	public static void main(String[] args) throws Exception {
+		var options = new SimpleCommandLinePropertySource(args);
+		var size = DataSize.parse(options.containsProperty("size") ? options.getProperty("size") : "64MB").toBytes();
+		var rounds = Integer.parseInt(options.containsProperty("rounds") ? options.getProperty("rounds") : "10");
+		var growth = Double.parseDouble(options.containsProperty("growth") ? options.getProperty("growth") : "0.01");
+		new DeltaUploadComparison().run(size, rounds, growth);
+	}
+
+	private void run(long size, int rounds, double growth) throws IOException {
+		var log = Files.createTempFile("access", ".log").toFile();
+		try (var server = LoadTestServer.start(Map.of())) {
+			var username = server.provision(1).get(0);
+			var sessionFactory = server.sessionFactory(username);
+			var template = new FtpRemoteFileTemplate(sessionFactory);
+			var full = new DeltaUploads(sessionFactory, DeltaUploads.Compression.NONE, false, 64 * 1024);
+			var gzip = new DeltaUploads(sessionFactory, DeltaUploads.Compression.GZIP, false, 64 * 1024);
+			var delta = new DeltaUploads(sessionFactory, DeltaUploads.Compression.NONE, true, 64 * 1024);
+			long fullNanos = 0, gzipNanos = 0, deltaNanos = 0;
+			this.append(log, size);
+			for (var round = 0; round <= rounds; round++) {
+				if (round > 0) {
+					this.append(log, (long) (log.length() * growth));
+				}
+				// without deltas an existing file is left alone, so the full uploads start from an empty directory
+				for (var name : new String[]{"full.log", "gzip.log.gz"}) {
+					if (template.exists(name)) {
+						template.remove(name);
+					}
+				}
+				var start = System.nanoTime();
+				full.upload(log, "full.log");
+				fullNanos += System.nanoTime() - start;
+				start = System.nanoTime();
+				gzip.upload(log, "gzip.log");
+				gzipNanos += System.nanoTime() - start;
+				start = System.nanoTime();
+				delta.upload(log, "delta.log");
+				deltaNanos += System.nanoTime() - start;
+			}
+			System.out.println(String.format("%d uploads of a log growing from %d MB to %d MB by %.1f%% a round", rounds + 1, size >> 20, log.length() >> 20, growth * 100));
+			System.out.println(String.format("%-6s %14s %10s", "mode", "MB on wire", "seconds"));
+			System.out.println(String.format("%-6s %14.1f %10.2f", "full", full.getBytesOnWire() / 1048576.0, fullNanos / 1e9));
+			System.out.println(String.format("%-6s %14.1f %10.2f", "gzip", gzip.getBytesOnWire() / 1048576.0, gzipNanos / 1e9));
+			System.out.println(String.format("%-6s %14.1f %10.2f", "delta", delta.getBytesOnWire() / 1048576.0, deltaNanos / 1e9));
+		}
+		finally {
+			Files.deleteIfExists(log.toPath());
+		}
+	}
+
+	/**
+		* Appends about {@code bytes} of combined log format lines, with a skewed mix of clients, paths and statuses.
+		*/
+	private void append(File log, long bytes) throws IOException {
+		var written = 0L;
+		try (BufferedWriter writer = Files.newBufferedWriter(log.toPath(), StandardCharsets.US_ASCII, StandardOpenOption.APPEND)) {
+			while (written < bytes) {
+				this.clock += this.random.nextInt(3);
+				var path = PATHS[Math.min(this.random.nextInt(PATHS.length) + this.random.nextInt(2), PATHS.length - 1)]
+					.replace("{id}", Integer.toString(this.random.nextInt(100_000)));
+				var status = this.random.nextInt(100) < 95 ? 200 : (this.random.nextBoolean() ? 404 : 500);
+				var line = "10." + this.random.nextInt(4) + "." + this.random.nextInt(256) + "." + this.random.nextInt(256)
+					+ " - - [" + TIMESTAMP.format(Instant.ofEpochSecond(this.clock)) + "] \"GET " + path + " HTTP/1.1\" "
+					+ status + " " + this.random.nextInt(20_000) + " \"-\" \"" + AGENTS[this.random.nextInt(AGENTS.length)] + "\"\n";
+				writer.write(line);
+				written += line.length();
+			}
+		}
+	}
+}
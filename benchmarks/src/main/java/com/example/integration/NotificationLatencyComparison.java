@@ -0,0 +1,129 @@
+package com.example.integration;
+
+import ftp.LoadTestServer;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.integration.channel.AbstractMessageChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.util.Assert;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.SocketUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+	* Runs the Mina server and the integration client's {@code inbound} profile in this JVM, uploads {@code --uploads}
+	* small files one after another and prints how long each took from the start of its upload until the client had it
+	* on {@code inboundFiles}. With {@code --mode=poll} only the client's poller, once a second, finds the files, and with
+	* {@code --mode=push} the server also posts every upload to the client's {@code /notifications}. The uploads are
+	* spaced by a random pause of up to a second, so that they land anywhere between two polls.
+	*
+	* <pre>
+	* java -cp target/benchmarks.jar com.example.integration.NotificationLatencyComparison --mode=poll --uploads=100
+	* java -cp target/benchmarks.jar com.example.integration.NotificationLatencyComparison --mode=push --uploads=100
+	* </pre>
+	*/
+public class NotificationLatencyComparison {
+
+	public static void main(String[] args) throws Exception {
+		var options = new SimpleCommandLinePropertySource(args);
+		var mode = options.containsProperty("mode") ? options.getProperty("mode") : "push";
+		var uploads = Integer.parseInt(options.containsProperty("uploads") ? options.getProperty("uploads") : "100");
+		var clientPort = SocketUtils.findAvailableTcpPort();
+		var overrides = mode.equals("push") ? Map.of("ftp.notifications.url", "http://localhost:" + clientPort + "/notifications") : Map.<String, String>of();
+		var state = Files.createTempDirectory("ftp-state").toFile();
+		try (var server = LoadTestServer.start(overrides)) {
+			var username = server.provision(1).get(0);
+			// only one application.properties survives in the shaded jar, so everything the client needs is passed here
+			var client = new SpringApplicationBuilder(IntegrationApplication.class).run(
+				"--spring.profiles.active=inbound",
+				"--spring.main.banner-mode=off",
+				// the inbound profile defines the same defaultFtpSessionFactory as FtpTemplateConfiguration
+				"--spring.main.allow-bean-definition-overriding=true",
+				"--spring.autoconfigure.exclude=org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration",
+				"--server.port=" + clientPort,
+				"--ftp1.username=" + username,
+				"--ftp1.password=" + username,
+				"--ftp1.host=localhost",
+				"--ftp1.port=" + server.getPort(),
+				"--ftp.state-directory=" + state.getAbsolutePath(),
+				"--logging.level.org.apache.ftpserver.listener.nio.FtpLoggingFilter=warn");
+			try (client) {
+				var delivered = new ConcurrentHashMap<String, Long>();
+				((AbstractMessageChannel) client.getBean("inboundFiles", MessageChannel.class)).addInterceptor(new ChannelInterceptor() {
+
+					@Override
+					public Message<?> preSend(Message<?> message, MessageChannel channel) {
+						delivered.putIfAbsent(((File) message.getPayload()).getName(), System.nanoTime());
+						return message;
+					}
+				});
+				var uploader = uploader(server.getPort(), username);
+				var random = new Random(42);
+				var run = UUID.randomUUID().toString().substring(0, 8);
+				var latencies = new long[uploads];
+				for (var i = 0; i < uploads; i++) {
+					Thread.sleep(random.nextInt(1000));
+					var name = "latency-" + run + "-" + i + ".txt";
+					var body = new byte[1024];
+					random.nextBytes(body);
+					var start = System.nanoTime();
+					Assert.state(uploader.storeFile(name, new ByteArrayInputStream(body)), "could not upload " + name + ": " + uploader.getReplyString());
+					var deadline = start + 10_000_000_000L;
+					while (!delivered.containsKey(name)) {
+						if (System.nanoTime() > deadline) {
+							throw new IllegalStateException(name + " was not delivered within 10s");
+						}
+						Thread.sleep(0, 100_000);
+					}
+					latencies[i] = delivered.get(name) - start;
+					new File(new File(new File(System.getProperty("user.home"), "Desktop"), "local"), name).delete();
+				}
+				uploader.logout();
+				uploader.disconnect();
+				Arrays.sort(latencies);
+				System.out.println(String.format("%s: %d uploads, latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms", mode, uploads,
+					percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99), latencies[uploads - 1] / 1e6));
+			}
+		}
+		finally {
+			FileSystemUtils.deleteRecursively(state);
+		}
+	}
+
+	/**
+		* A user may have two sessions from one address, which the client's poller and its fetches can take between them, so
+		* the files are uploaded from another loopback address, as they would be from another host.
+		*/
+	private static FTPClient uploader(int port, String username) throws IOException {
+		var uploader = new FTPClient();
+		var address = InetAddress.getByName("127.0.0.2");
+		uploader.connect(InetAddress.getLoopbackAddress(), port, address, 0);
+		Assert.state(uploader.login(username, username), "could not log in: " + uploader.getReplyString());
+		uploader.setFileType(FTP.BINARY_FILE_TYPE);
+		uploader.setPassiveLocalIPAddress(address);
+		uploader.enterLocalPassiveMode();
+		return uploader;
+	}
+
+	/**
+		* @return the latency in milliseconds below which the given fraction of the sorted latencies are
+		*/
+	private static double percentile(long[] sorted, double percentile) {
+		var index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+		return sorted[Math.max(index, 0)] / 1e6;
+	}
+}
@@ -0,0 +1,82 @@
+package com.example.integration;
+
+import ftp.LoadTestServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+	* How long {@link ParallelFtpTransfers} takes to download one file, by file size and number of parallel ranges.
+	*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ParallelFtpTransfersBenchmarks {
+
+	@Param({"1MB", "64MB", "1GB", "5GB"})
+	public String size;
+
+	// the server lets a user have two sessions from one address, so more ranges are turned away with a 421
+	@Param({"1", "2"})
+	public int parallelism;
+
+	private LoadTestServer server;
+	private ParallelFtpTransfers transfers;
+	private File local;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.server = LoadTestServer.start(Map.of());
+		var username = this.server.provision(1).get(0);
+		var sessionFactory = this.server.sessionFactory(username);
+		var template = new FtpRemoteFileTemplate(sessionFactory);
+		var content = Files.createTempFile("benchmark", ".bin").toFile();
+		try (var file = new RandomAccessFile(content, "rw")) {
+			file.setLength(DataSize.parse(this.size).toBytes());
+		}
+		template.execute(session -> {
+			try (var in = new FileInputStream(content)) {
+				session.write(in, "benchmark.bin");
+			}
+			return null;
+		});
+		Files.delete(content.toPath());
+		this.transfers = ParallelFtpTransfers.pooled(sessionFactory, this.parallelism, DataSize.ofMegabytes(1).toBytes());
+		this.local = Files.createTempFile("benchmark", ".bin").toFile();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		this.transfers.destroy();
+		this.server.close();
+		Files.deleteIfExists(this.local.toPath());
+	}
+
+	@Benchmark
+	public long download() throws Exception {
+		this.transfers.download("benchmark.bin", this.local);
+		return this.local.length();
+	}
+}
@@ -0,0 +1,124 @@
+package com.example.integration;
+
+import ftp.LoadTestServer;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Random;
+
+/**
+	* Uploads {@code --size} bytes through the gateway's upload path to an in-process {@link LoadTestServer}, either
+	* {@code --mode=staged} (the body is copied to a local file first, like {@code /put/{sfn}} needs) or
+	* {@code --mode=streamed} (through {@link StreamingUploads}), and prints the throughput and the peak RSS and heap of
+	* the JVM. Peaks only ever grow, so run each mode in a JVM of its own:
+	*
+	* <pre>
+	* java -Xmx256m -cp target/benchmarks.jar com.example.integration.StreamingUploadComparison --mode=staged --size=4GB
+	* java -Xmx256m -cp target/benchmarks.jar com.example.integration.StreamingUploadComparison --mode=streamed --size=4GB
+	* </pre>
+	*/
+public class StreamingUploadComparison {
+
+	public static void main(String[] args) throws Exception {
+		var options = new SimpleCommandLinePropertySource(args);
+		var mode = options.containsProperty("mode") ? options.getProperty("mode") : "streamed";
+		var size = DataSize.parse(options.containsProperty("size") ? options.getProperty("size") : "1GB").toBytes();
+		var bufferSize = DataSize.parse(options.containsProperty("buffer-size") ? options.getProperty("buffer-size") : "256KB").toBytes();
+		try (var server = LoadTestServer.start(Map.of())) {
+			var username = server.provision(1).get(0);
+			var tenantSessionFactories = new TenantSessionFactories(Map.of(username, server.sessionFactory(username)));
+			var start = System.nanoTime();
+			if (mode.equals("staged")) {
+				staged(new FtpRemoteFileTemplate(server.sessionFactory(username)), body(size));
+			}
+			else {
+				var pumps = new ThreadPoolTaskExecutor();
+				pumps.initialize();
+				try {
+					new StreamingUploads(tenantSessionFactories, pumps, (int) bufferSize).upload(username, "upload.bin", body(size));
+				}
+				finally {
+					pumps.shutdown();
+				}
+			}
+			var seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+			System.out.println(String.format("%s: %d MB in %.1fs, %.1f MB/s, peak RSS %d MB, peak heap %d MB", mode, size >> 20, seconds,
+				(size >> 20) / seconds, peakRssKilobytes() >> 10, peakHeapBytes() >> 20));
+		}
+	}
+
+	private static void staged(FtpRemoteFileTemplate template, InputStream body) throws IOException {
+		var staged = Files.createTempFile("staged", ".bin");
+		try {
+			Files.copy(body, staged, StandardCopyOption.REPLACE_EXISTING);
+			template.execute(session -> {
+				try (var in = new FileInputStream(staged.toFile())) {
+					session.write(in, "upload.bin");
+				}
+				return null;
+			});
+		}
+		finally {
+			Files.deleteIfExists(staged);
+		}
+	}
+
+	/**
+		* A body of {@code size} bytes that repeats one random megabyte, so that producing it costs neither memory nor disk.
+		*/
+	private static InputStream body(long size) {
+		var block = new byte[1024 * 1024];
+		new Random(42).nextBytes(block);
+		return new InputStream() {
+
+			private long position;
+
+			@Override
+			public int read() {
+				return this.position < size ? block[(int) (this.position++ % block.length)] & 0xff : -1;
+			}
+
+			@Override
+			public int read(byte[] bytes, int offset, int length) {
+				if (this.position >= size) {
+					return -1;
+				}
+				var from = (int) (this.position % block.length);
+				var count = (int) Math.min(Math.min(length, block.length - from), size - this.position);
+				System.arraycopy(block, from, bytes, offset, count);
+				this.position += count;
+				return count;
+			}
+		};
+	}
+
+	private static long peakRssKilobytes() throws IOException {
+		var status = Path.of("/proc/self/status");
+		if (!Files.exists(status)) {
+			return -1;
+		}
+		return Files.readAllLines(status).stream()
+			.filter(line -> line.startsWith("VmHWM:"))
+			.map(line -> Long.parseLong(line.replaceAll("[^0-9]", "")))
+			.findFirst()
+			.orElse(-1L);
+	}
+
+	private static long peakHeapBytes() {
+		return ManagementFactory.getMemoryPoolMXBeans().stream()
+			.filter(pool -> pool.getType() == MemoryType.HEAP)
+			.mapToLong(pool -> pool.getPeakUsage().getUsed())
+			.sum();
+	}
+}
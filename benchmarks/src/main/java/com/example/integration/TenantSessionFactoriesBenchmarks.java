@@ -0,0 +1,90 @@
+package com.example.integration;
+
+import ftp.LoadTestServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.integration.ftp.session.DefaultFtpSessionFactory;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+	* The latency of a small gateway upload with and without a pool of logged-in sessions per tenant. Each benchmark
+	* thread uploads as its own tenant.
+	*/
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(TenantSessionFactoriesBenchmarks.TENANTS)
+@Fork(1)
+public class TenantSessionFactoriesBenchmarks {
+
+	static final int TENANTS = 2;
+
+	@State(Scope.Benchmark)
+	public static class Server {
+
+		@Param({"true", "false"})
+		public boolean pooled;
+
+		private LoadTestServer server;
+		private TenantSessionFactories factories;
+		private List<String> tenants;
+		private final AtomicInteger nextTenant = new AtomicInteger();
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			this.server = LoadTestServer.start(Map.of());
+			this.tenants = this.server.provision(TENANTS);
+			var targets = new HashMap<String, DefaultFtpSessionFactory>();
+			this.tenants.forEach(tenant -> targets.put(tenant, this.server.sessionFactory(tenant)));
+			this.factories = this.pooled ?
+				new TenantSessionFactories(targets, 1, Duration.ofSeconds(30), Duration.ofMinutes(4)) :
+				new TenantSessionFactories(targets);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			this.factories.destroy();
+			this.server.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Tenant {
+
+		private String name;
+		private final byte[] content = new byte[1024];
+
+		@Setup(Level.Trial)
+		public void setUp(Server server) {
+			this.name = server.tenants.get(server.nextTenant.getAndIncrement() % TENANTS);
+		}
+	}
+
+	@Benchmark
+	public void put(Server server, Tenant tenant) throws Exception {
+		var sessionFactory = server.factories.get(tenant.name);
+		try (var session = sessionFactory.getSession()) {
+			session.write(new ByteArrayInputStream(tenant.content), "upload.bin");
+		}
+	}
+}
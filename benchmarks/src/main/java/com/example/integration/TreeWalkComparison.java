@@ -0,0 +1,267 @@
+package com.example.integration;
+
+import ftp.LoadTestServer;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.ftp.gateway.FtpOutboundGateway;
+import org.springframework.integration.ftp.session.DefaultFtpSessionFactory;
+import org.springframework.messaging.support.MessageBuilder;
+
+import javax.net.SocketFactory;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+	* Lists a tree of {@code --files} files (a hundred to a directory, three levels deep) on an in-process
+	* {@link LoadTestServer} and prints the time, the entries found and the peak heap. {@code --mode=gateway} uses the
+	* outbound gateway's {@code ls -R}, {@code --mode=sequential} does what that is meant to do, one {@code LIST} after
+	* another on one session, and {@code --mode=parallel} uses {@link ParallelTreeWalker}. Peaks only ever grow, so run
+	* each mode in a JVM of its own:
+	*
+	* <pre>
+	* java -cp target/benchmarks.jar com.example.integration.TreeWalkComparison --mode=sequential --files=100000 --latency=2ms
+	* java -cp target/benchmarks.jar com.example.integration.TreeWalkComparison --mode=parallel --files=100000 --latency=2ms --parallelism=8
+	* </pre>
+	*/
+public class TreeWalkComparison {
+
+	public static void main(String[] args) throws Exception {
+		var options = new SimpleCommandLinePropertySource(args);
+		var mode = options.containsProperty("mode") ? options.getProperty("mode") : "parallel";
+		var files = Integer.parseInt(options.containsProperty("files") ? options.getProperty("files") : "100000");
+		var parallelism = Integer.parseInt(options.containsProperty("parallelism") ? options.getProperty("parallelism") : "8");
+		var inFlight = Integer.parseInt(options.containsProperty("in-flight") ? options.getProperty("in-flight") : "1000");
+		var latency = DurationStyle.detectAndParse(options.containsProperty("latency") ? options.getProperty("latency") : "0ms");
+		try (var server = LoadTestServer.start(Map.of())) {
+			var username = server.provision(1).get(0);
+			var home = Path.of(server.getContext().getBean(UserManager.class).getUserByName(username).getHomeDirectory());
+			var directories = populate(home, files);
+			System.out.println(String.format("%d files in %d directories, %d ms latency", files, directories, latency.toMillis()));
+			var sessionFactory = sessionFactory(server, username, latency);
+			var start = System.nanoTime();
+			long found;
+			if (mode.equals("gateway")) {
+				found = gateway(server, sessionFactory);
+			}
+			else if (mode.equals("sequential")) {
+				found = sequential(sessionFactory);
+			}
+			else {
+				found = parallel(sessionFactory, username, parallelism, inFlight);
+			}
+			var seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+			System.out.println(String.format("%s: %d entries in %.2fs, %.0f entries/s, peak heap %d MB", mode, found, seconds, found / seconds,
+				peakHeapBytes() >> 20));
+		}
+	}
+
+	/**
+		* @return the number of directories made for the files
+		*/
+	private static int populate(Path home, int files) throws Exception {
+		var directories = 0;
+		for (var i = 0; i < files; i++) {
+			var directory = home.resolve(String.format("d%d/d%d/d%d", i / 10_000, i / 1_000 % 10, i / 100 % 10));
+			if (i % 100 == 0) {
+				Files.createDirectories(directory);
+				directories++;
+			}
+			Files.createFile(directory.resolve("file-" + i + ".txt"));
+		}
+		return directories;
+	}
+
+	private static long gateway(LoadTestServer server, SessionFactory<FTPFile> sessionFactory) {
+		var gateway = new FtpOutboundGateway(sessionFactory, "ls", "payload");
+		gateway.setOptions("-R -dirs");
+		gateway.setBeanFactory(server.getContext());
+		gateway.afterPropertiesSet();
+		var replies = new QueueChannel();
+		gateway.handleMessage(MessageBuilder.withPayload("/").setReplyChannel(replies).build());
+		var listing = (List<?>) replies.receive(0).getPayload();
+		return listing.size();
+	}
+
+	private static long sequential(SessionFactory<FTPFile> sessionFactory) throws IOException {
+		try (var session = sessionFactory.getSession()) {
+			return sequential(session, "/");
+		}
+	}
+
+	private static long sequential(Session<FTPFile> session, String directory) throws IOException {
+		var found = 0L;
+		for (var file : session.list(directory)) {
+			found++;
+			if (file.isDirectory()) {
+				found += sequential(session, directory + file.getName() + "/");
+			}
+		}
+		return found;
+	}
+
+	private static long parallel(SessionFactory<FTPFile> sessionFactory, String username, int parallelism, int inFlight) {
+		var tenantSessionFactories = new TenantSessionFactories(Map.of(username, sessionFactory), parallelism,
+			Duration.ofSeconds(30), Duration.ofMinutes(1));
+		var walker = new ParallelTreeWalker(tenantSessionFactories, parallelism, inFlight);
+		try (var walk = walker.walk(username, "/")) {
+			var found = 0L;
+			while (walk.hasNext()) {
+				walk.next();
+				found++;
+			}
+			return found;
+		}
+		finally {
+			walker.destroy();
+			tenantSessionFactories.destroy();
+		}
+	}
+
+	/**
+		* The server lets a user have only two sessions from one address, so each session comes from an address of its
+		* own on the loopback network, like sessions from several gateway hosts would. Loopback has next to no latency, so
+		* each socket waits for {@code latency} when it connects and when it reads the first reply to a request instead.
+		*/
+	private static DefaultFtpSessionFactory sessionFactory(LoadTestServer server, String username, Duration latency) {
+		var addresses = new AtomicInteger();
+		var sessionFactory = new DefaultFtpSessionFactory() {
+
+			@Override
+			protected FTPClient createClientInstance() {
+				var local = new byte[]{127, 0, 0, (byte) (2 + addresses.getAndIncrement() % 250)};
+				var client = super.createClientInstance();
+				client.setSocketFactory(new SocketFactory() {
+
+					@Override
+					public Socket createSocket() throws IOException {
+						var socket = new SlowSocket(latency.toNanos());
+						socket.bind(new InetSocketAddress(InetAddress.getByAddress(local), 0));
+						return socket;
+					}
+
+					@Override
+					public Socket createSocket(String host, int port) throws IOException {
+						return this.createSocket(InetAddress.getByName(host), port);
+					}
+
+					@Override
+					public Socket createSocket(InetAddress host, int port) throws IOException {
+						var socket = this.createSocket();
+						socket.connect(new InetSocketAddress(host, port));
+						return socket;
+					}
+
+					@Override
+					public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) {
+						throw new UnsupportedOperationException();
+					}
+
+					@Override
+					public Socket createSocket(InetAddress host, int port, InetAddress localAddress, int localPort) {
+						throw new UnsupportedOperationException();
+					}
+				});
+				return client;
+			}
+		};
+		sessionFactory.setHost("localhost");
+		sessionFactory.setPort(server.getPort());
+		sessionFactory.setUsername(username);
+		sessionFactory.setPassword(username);
+		sessionFactory.setClientMode(FTPClient.PASSIVE_LOCAL_DATA_CONNECTION_MODE);
+		sessionFactory.setFileType(FTPClient.BINARY_FILE_TYPE);
+		return sessionFactory;
+	}
+
+	private static long peakHeapBytes() {
+		return ManagementFactory.getMemoryPoolMXBeans().stream()
+			.filter(pool -> pool.getType() == MemoryType.HEAP)
+			.mapToLong(pool -> pool.getPeakUsage().getUsed())
+			.sum();
+	}
+
+	/**
+		* A socket with a round trip of {@code latencyNanos}: connecting takes that long, and so does the first read after
+		* a write.
+		*/
+	private static class SlowSocket extends Socket {
+
+		private final long latencyNanos;
+		private volatile boolean awaitingReply;
+
+		SlowSocket(long latencyNanos) {
+			this.latencyNanos = latencyNanos;
+		}
+
+		@Override
+		public void connect(SocketAddress endpoint, int timeout) throws IOException {
+			LockSupport.parkNanos(this.latencyNanos);
+			super.connect(endpoint, timeout);
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return new FilterInputStream(super.getInputStream()) {
+
+				@Override
+				public int read() throws IOException {
+					SlowSocket.this.awaitReply();
+					return super.read();
+				}
+
+				@Override
+				public int read(byte[] bytes, int offset, int length) throws IOException {
+					SlowSocket.this.awaitReply();
+					return super.read(bytes, offset, length);
+				}
+			};
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			return new FilterOutputStream(super.getOutputStream()) {
+
+				@Override
+				public void write(int b) throws IOException {
+					SlowSocket.this.awaitingReply = true;
+					this.out.write(b);
+				}
+
+				@Override
+				public void write(byte[] bytes, int offset, int length) throws IOException {
+					SlowSocket.this.awaitingReply = true;
+					this.out.write(bytes, offset, length);
+				}
+			};
+		}
+
+		private void awaitReply() {
+			if (this.awaitingReply) {
+				this.awaitingReply = false;
+				LockSupport.parkNanos(this.latencyNanos);
+			}
+		}
+	}
+}
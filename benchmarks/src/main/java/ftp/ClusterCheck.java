@@ -0,0 +1,96 @@
+package ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+	* Starts {@code --nodes} servers in-process in cluster mode, sharing one H2 database and one root directory the way
+	* real nodes share PostgreSQL and a volume, and checks what the cluster has to get right: a user logging in over and
+	* over on every node gets no more sessions than their limit allows in all, and a change to a user made through one
+	* node is seen by the others without waiting for the user cache to expire.
+	*
+	* <pre>
+	* java -cp target/benchmarks.jar ftp.ClusterCheck --nodes=3
+	* </pre>
+	*/
+public class ClusterCheck {
+
+	public static void main(String[] args) throws Exception {
+		var options = new SimpleCommandLinePropertySource(args);
+		var count = Integer.parseInt(options.containsProperty("nodes") ? options.getProperty("nodes") : "3");
+		var root = Files.createTempDirectory("ftp-cluster").toFile();
+		var nodes = new ArrayList<LoadTestServer>();
+		try {
+			for (var i = 0; i < count; i++) {
+				nodes.add(LoadTestServer.start(Map.of(
+					"spring.datasource.url", "jdbc:h2:mem:ftp-cluster;DB_CLOSE_DELAY=-1",
+					"ftp.root", root.getAbsolutePath(),
+					"ftp.cluster.enabled", "true",
+					"ftp.cluster.node-id", "node-" + i)));
+			}
+			var username = nodes.get(0).provision(1).get(0);
+			checkLogins(nodes, username);
+			checkInvalidations(nodes, username);
+		}
+		finally {
+			nodes.forEach(LoadTestServer::close);
+			FileSystemUtils.deleteRecursively(root);
+		}
+	}
+
+	/**
+		* Every user may have two sessions from one address, so from localhost a single node lets in two, and without the
+		* cluster {@code nodes} nodes would let in twice as many as there are nodes.
+		*/
+	private static void checkLogins(List<LoadTestServer> nodes, String username) throws IOException {
+		var clients = new ArrayList<FTPClient>();
+		var admitted = 0;
+		try {
+			for (var attempt = 0; attempt < nodes.size() * 3; attempt++) {
+				var client = new FTPClient();
+				clients.add(client);
+				client.connect("localhost", nodes.get(attempt % nodes.size()).getPort());
+				try {
+					if (client.login(username, username)) {
+						admitted++;
+					}
+				}
+				catch (FTPConnectionClosedException e) {
+					// turned away with a 421
+				}
+			}
+		}
+		finally {
+			for (var client : clients) {
+				if (client.isConnected()) {
+					client.disconnect();
+				}
+			}
+		}
+		System.out.println(String.format("%d nodes let in %d of %d logins of one user from one address (the limit is 2)", nodes.size(), admitted, nodes.size() * 3));
+	}
+
+	private static void checkInvalidations(List<LoadTestServer> nodes, String username) throws Exception {
+		var first = nodes.get(0).getContext();
+		// every node has the user cached after logging in above
+		first.getBean(JdbcTemplate.class).update("update ftp_user set password = ? where username = ?", "changed", username);
+		var start = System.nanoTime();
+		first.getBean(UserCache.class).invalidate(username);
+		for (var node : nodes.subList(1, nodes.size())) {
+			var userManager = node.getContext().getBean(FtpUserManager.class);
+			while (!userManager.getUserByName(username).getPassword().equals("changed")) {
+				Thread.sleep(1);
+			}
+		}
+		System.out.println(String.format("a change made through one node reached the other %d in %.1f ms", nodes.size() - 1, (System.nanoTime() - start) / 1e6));
+	}
+}
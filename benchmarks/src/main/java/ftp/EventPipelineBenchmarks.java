@@ -0,0 +1,69 @@
+package ftp;
+
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.integration.config.EnableIntegration;
+import org.springframework.integration.ftp.server.SessionOpenedEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+	* What publishing an FTP event costs the Mina I/O thread that raised it, while the pipeline batches and drains the
+	* events in the background. This is the latency the event fan-out adds to every FTP command.
+	*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class EventPipelineBenchmarks {
+
+	private AnnotationConfigApplicationContext context;
+	private SessionOpenedEvent event;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.context = new AnnotationConfigApplicationContext();
+		this.context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance());
+		this.context.register(Pipeline.class);
+		this.context.refresh();
+		this.event = new SessionOpenedEvent(Mockito.mock(FtpSession.class));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		var metrics = this.context.getBean(EventPipelineMetrics.class);
+		System.out.println("dropped " + metrics.dropped() + " event(s)");
+		this.context.close();
+	}
+
+	@Benchmark
+	public void publish() {
+		this.context.publishEvent(this.event);
+	}
+
+	@Configuration
+	@EnableIntegration
+	@Import(IntegrationConfiguration.class)
+	static class Pipeline {
+	}
+}
@@ -0,0 +1,91 @@
+package ftp;
+
+import org.apache.ftpserver.ftplet.AuthorizationRequest;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+import org.apache.ftpserver.usermanager.impl.TransferRateRequest;
+import org.apache.ftpserver.usermanager.impl.WriteRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+	* The per-request cost of authorizing and authenticating a user. Run with the allocation profiler
+	* ({@code java -jar target/benchmarks.jar FtpUserBenchmarks -prof gc}) to check that {@code authorize} allocates nothing.
+	*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FtpUserBenchmarks {
+
+	@Param({"true", "false"})
+	public boolean cached;
+
+	private EmbeddedDatabase database;
+	private File root;
+	private FtpUserManager userManager;
+	private User user;
+	private final AuthorizationRequest write = new WriteRequest();
+	private final AuthorizationRequest transferRate = new TransferRateRequest();
+	private final UsernamePasswordAuthentication authentication = new UsernamePasswordAuthentication("jlong", "pw");
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.database = new EmbeddedDatabaseBuilder()
+			.setType(EmbeddedDatabaseType.H2)
+			.generateUniqueName(true)
+			.addScript("classpath:schema.sql")
+			.build();
+		this.root = Files.createTempDirectory("ftp-benchmarks").toFile();
+		var userCache = this.cached ? UserCache.of(10_000, Duration.ofMinutes(10)) : UserCache.disabled();
+		this.userManager = new FtpUserManager(HomeShards.of(List.of(this.root), 128), new JdbcTemplate(this.database), userCache,
+			PasswordVerifier.of("bcrypt", 10, 10_000, Duration.ofMinutes(10)));
+		new JdbcTemplate(this.database).update("insert into ftp_user (username, password, enabled, admin) values ('jlong', 'pw', true, true)");
+		this.user = this.userManager.getUserByName("jlong");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.database.shutdown();
+		FileSystemUtils.deleteRecursively(this.root);
+	}
+
+	@Benchmark
+	public AuthorizationRequest authorizeWrite() {
+		return this.user.authorize(this.write);
+	}
+
+	@Benchmark
+	public AuthorizationRequest authorizeTransferRate() {
+		return this.user.authorize(this.transferRate);
+	}
+
+	@Benchmark
+	public User authenticate() throws Exception {
+		return this.userManager.authenticate(this.authentication);
+	}
+}
@@ -0,0 +1,52 @@
+package ftp;
+
+import java.util.Arrays;
+
+/**
+	* Collects latencies in nanoseconds for one thread. Recorders are merged once the run is over.
+	*/
+class LatencyRecorder {
+
+	private long[] latencies = new long[1024];
+	private int count;
+	private int errors;
+
+	void record(long nanos) {
+		if (this.count == this.latencies.length) {
+			this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+		}
+		this.latencies[this.count++] = nanos;
+	}
+
+	void error() {
+		this.errors++;
+	}
+
+	int count() {
+		return this.count;
+	}
+
+	int errors() {
+		return this.errors;
+	}
+
+	void merge(LatencyRecorder other) {
+		for (var i = 0; i < other.count; i++) {
+			this.record(other.latencies[i]);
+		}
+		this.errors += other.errors;
+	}
+
+	/**
+		* @return the latency in microseconds below which the given fraction of the operations completed
+		*/
+	long percentileMicros(double percentile) {
+		if (this.count == 0) {
+			return 0;
+		}
+		var sorted = Arrays.copyOf(this.latencies, this.count);
+		Arrays.sort(sorted);
+		var index = (int) Math.min(this.count - 1, Math.ceil(percentile * this.count) - 1);
+		return sorted[Math.max(index, 0)] / 1_000;
+	}
+}
@@ -0,0 +1,246 @@
+package ftp;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.net.ftp.FTPFile;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.integration.file.remote.session.CachingSessionFactory;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+	* Drives {@code --clients} concurrent clients, each logged in as its own user through an {@link FtpRemoteFileTemplate},
+	* against an in-process {@link LoadTestServer} for {@code --duration}, and reports the throughput and latency
+	* percentiles of each operation. The results are compared with the baseline of the scenario, and the run fails if any
+	* operation got slower by more than {@code --tolerance}; {@code --record} writes the results as the new baseline.
+	* Any {@code --ftp.*} option is passed on to the server, so for example a Zipfian workload can be run without the
+	* file content cache that the {@code loadtest} profile turns on:
+	*
+	* <pre>
+	* java -cp target/benchmarks.jar ftp.LoadTest --scenario=zipf-uncached --distribution=zipf --ftp.files.cache.enabled=false
+	* </pre>
+	*/
+@Log4j2
+public class LoadTest {
+
+	enum Operation {
+		LOGIN, PUT, GET, LIST
+	}
+
+	private final int clients;
+	private final long durationNanos;
+	private final byte[] content;
+	private final int files;
+	private final boolean zipf;
+	private final boolean pooled;
+	private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+	private final double[] zipfDistribution;
+
+	private LoadTest(SimpleCommandLinePropertySource options) {
+		this.clients = Integer.parseInt(option(options, "clients", "16"));
+		this.durationNanos = DurationStyle.detectAndParse(option(options, "duration", "30s")).toNanos();
+		this.content = new byte[(int) DataSize.parse(option(options, "file-size", "64KB")).toBytes()];
+		new Random(42).nextBytes(this.content);
+		this.files = Integer.parseInt(option(options, "files", "50"));
+		this.zipf = option(options, "distribution", "uniform").equals("zipf");
+		this.pooled = Boolean.parseBoolean(option(options, "pooled", "true"));
+		for (var weight : option(options, "mix", "login:5,put:20,get:60,list:15").split(",")) {
+			var parts = weight.split(":");
+			this.mix.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+		}
+		this.zipfDistribution = new double[this.files];
+		var total = 0.0;
+		for (var i = 0; i < this.files; i++) {
+			total += 1.0 / (i + 1);
+			this.zipfDistribution[i] = total;
+		}
+		for (var i = 0; i < this.files; i++) {
+			this.zipfDistribution[i] /= total;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		var options = new SimpleCommandLinePropertySource(args);
+		var serverProperties = new HashMap<String, String>();
+		for (var name : options.getPropertyNames()) {
+			if (name.startsWith("ftp.") || name.startsWith("spring.")) {
+				serverProperties.put(name, options.getProperty(name));
+			}
+		}
+		var scenario = option(options, "scenario", "default");
+		var baseline = new File(option(options, "baselines", "baselines"), scenario + ".properties");
+		var tolerance = Double.parseDouble(option(options, "tolerance", "0.25"));
+		Map<Operation, LatencyRecorder> results;
+		try (var server = LoadTestServer.start(serverProperties)) {
+			results = new LoadTest(options).run(server);
+		}
+		var seconds = DurationStyle.detectAndParse(option(options, "duration", "30s")).toMillis() / 1000.0;
+		var measured = report(results, seconds);
+		if (options.containsProperty("record")) {
+			try (var out = new FileOutputStream(baseline)) {
+				measured.store(out, "load test baseline for " + Arrays.stream(args).filter(arg -> !arg.equals("--record")).collect(Collectors.joining(" ")));
+			}
+			log.info("recorded the baseline in " + baseline.getAbsolutePath());
+		}
+		else if (baseline.exists() && !compare(measured, baseline, tolerance)) {
+			System.exit(1);
+		}
+	}
+
+	private Map<Operation, LatencyRecorder> run(LoadTestServer server) throws Exception {
+		var users = server.provision(this.clients);
+		var executor = Executors.newFixedThreadPool(this.clients);
+		try {
+			var tasks = new ArrayList<Callable<Map<Operation, LatencyRecorder>>>();
+			for (var i = 0; i < this.clients; i++) {
+				var sessionFactory = server.sessionFactory(users.get(i));
+				var seed = i;
+				tasks.add(() -> this.client(sessionFactory, seed));
+			}
+			var merged = new EnumMap<Operation, LatencyRecorder>(Operation.class);
+			for (var future : executor.invokeAll(tasks)) {
+				future.get().forEach((operation, recorder) -> merged.computeIfAbsent(operation, o -> new LatencyRecorder()).merge(recorder));
+			}
+			return merged;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Map<Operation, LatencyRecorder> client(SessionFactory<FTPFile> sessionFactory, int seed) throws IOException {
+		var pool = this.pooled ? new CachingSessionFactory<>(sessionFactory, 1) : null;
+		var template = new FtpRemoteFileTemplate(pool != null ? pool : sessionFactory);
+		var random = new Random(seed);
+		var recorders = new EnumMap<Operation, LatencyRecorder>(Operation.class);
+		try {
+			for (var i = 0; i < this.files; i++) {
+				var name = "file-" + i;
+				template.execute(session -> {
+					session.write(new ByteArrayInputStream(this.content), name);
+					return null;
+				});
+			}
+			var deadline = System.nanoTime() + this.durationNanos;
+			while (System.nanoTime() < deadline) {
+				var operation = this.pick(random);
+				var name = "file-" + this.pickFile(random);
+				var recorder = recorders.computeIfAbsent(operation, o -> new LatencyRecorder());
+				var start = System.nanoTime();
+				try {
+					switch (operation) {
+						case LOGIN:
+							sessionFactory.getSession().close();
+							break;
+						case PUT:
+							template.execute(session -> {
+								session.write(new ByteArrayInputStream(this.content), name);
+								return null;
+							});
+							break;
+						case GET:
+							template.execute(session -> {
+								session.read(name, OutputStream.nullOutputStream());
+								return null;
+							});
+							break;
+						case LIST:
+							template.execute(session -> session.list("."));
+							break;
+					}
+					recorder.record(System.nanoTime() - start);
+				}
+				catch (RuntimeException e) {
+					log.debug("the " + operation + " of " + name + " failed", e);
+					recorder.error();
+				}
+			}
+		}
+		finally {
+			if (pool != null) {
+				pool.destroy();
+			}
+		}
+		return recorders;
+	}
+
+	private Operation pick(Random random) {
+		var total = this.mix.values().stream().mapToInt(Integer::intValue).sum();
+		var choice = random.nextInt(total);
+		for (var entry : this.mix.entrySet()) {
+			choice -= entry.getValue();
+			if (choice < 0) {
+				return entry.getKey();
+			}
+		}
+		throw new IllegalStateException("the mix must not be empty");
+	}
+
+	private int pickFile(Random random) {
+		if (!this.zipf) {
+			return random.nextInt(this.files);
+		}
+		var index = Arrays.binarySearch(this.zipfDistribution, random.nextDouble());
+		return Math.min(index < 0 ? -index - 1 : index, this.files - 1);
+	}
+
+	private static Properties report(Map<Operation, LatencyRecorder> results, double seconds) {
+		var measured = new Properties();
+		System.out.println(String.format("%-6s %10s %8s %10s %10s %10s %10s", "op", "ops/s", "errors", "p50 us", "p90 us", "p99 us", "p99.9 us"));
+		results.forEach((operation, recorder) -> {
+			var throughput = recorder.count() / seconds;
+			System.out.println(String.format("%-6s %10.1f %8d %10d %10d %10d %10d", operation, throughput, recorder.errors(),
+				recorder.percentileMicros(0.5), recorder.percentileMicros(0.9), recorder.percentileMicros(0.99), recorder.percentileMicros(0.999)));
+			var key = operation.name().toLowerCase();
+			measured.setProperty(key + ".throughput", String.format("%.1f", throughput));
+			measured.setProperty(key + ".p50", Long.toString(recorder.percentileMicros(0.5)));
+			measured.setProperty(key + ".p99", Long.toString(recorder.percentileMicros(0.99)));
+		});
+		return measured;
+	}
+
+	private static boolean compare(Properties measured, File baselineFile, double tolerance) throws IOException {
+		var baseline = new Properties();
+		try (var in = new FileInputStream(baselineFile)) {
+			baseline.load(in);
+		}
+		var regressions = new ArrayList<String>();
+		for (var key : baseline.stringPropertyNames()) {
+			if (measured.getProperty(key) == null) {
+				continue;
+			}
+			var expected = Double.parseDouble(baseline.getProperty(key));
+			var actual = Double.parseDouble(measured.getProperty(key));
+			var worse = key.endsWith(".throughput") ? actual < expected * (1 - tolerance) : actual > expected * (1 + tolerance);
+			if (worse) {
+				regressions.add(key + " was " + actual + " against a baseline of " + expected);
+			}
+		}
+		regressions.forEach(regression -> log.warn("regression: " + regression));
+		return regressions.isEmpty();
+	}
+
+	private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+		var value = options.getProperty(name);
+		return value == null ? defaultValue : value;
+	}
+}
@@ -0,0 +1,99 @@
+package ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.integration.ftp.session.DefaultFtpSessionFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.SocketUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+	* Runs the whole Mina FTP server application in-process on a free port, with the {@code loadtest} profile, an in-memory
+	* H2 database instead of PostgreSQL and a temporary root directory. Users are provisioned with their name as their
+	* password, write access and no bandwidth limit.
+	*/
+public class LoadTestServer implements AutoCloseable {
+
+	private final ConfigurableApplicationContext context;
+	private final int port;
+	private final File root;
+
+	private LoadTestServer(ConfigurableApplicationContext context, int port, File root) {
+		this.context = context;
+		this.port = port;
+		this.root = root;
+	}
+
+	/**
+		* @param overrides extra application properties, which win over the defaults and the profile, and unset a
+		* property of the profile when they're empty
+		*/
+	public static LoadTestServer start(Map<String, String> overrides) throws IOException {
+		var port = SocketUtils.findAvailableTcpPort();
+		var root = Files.createTempDirectory("ftp-load").toFile();
+		var properties = new LinkedHashMap<String, String>();
+		properties.put("spring.profiles.active", "loadtest");
+		properties.put("spring.main.web-application-type", "none");
+		properties.put("spring.main.banner-mode", "off");
+		properties.put("spring.datasource.url", "jdbc:h2:mem:ftp-" + port + ";DB_CLOSE_DELAY=-1");
+		properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+		properties.put("spring.datasource.username", "sa");
+		properties.put("spring.datasource.password", "sa");
+		properties.put("ftp.port", Integer.toString(port));
+		properties.put("ftp.root", root.getAbsolutePath());
+		properties.putAll(overrides);
+		// added first, these win over whichever application.properties comes first on the classpath, and unlike command
+		// line arguments they can be empty, to unset a property of the profile
+		var environment = new StandardEnvironment();
+		environment.getPropertySources().addFirst(new MapPropertySource("loadtest", Map.copyOf(properties)));
+		var context = new SpringApplicationBuilder(MinaFtpServerApplication.class).environment(environment).run();
+		return new LoadTestServer(context, port, root);
+	}
+
+	public List<String> provision(int count) {
+		var users = IntStream.range(0, count)
+			.mapToObj(i -> new FtpUser("user-" + i, "user-" + i, true, List.of(), -1, null))
+			.collect(Collectors.toList());
+		this.context.getBean(FtpUserManager.class).provision(users);
+		this.context.getBean(JdbcTemplate.class).update("update ftp_user set admin = true, max_rate = 0, max_session_rate = 0");
+		this.context.getBean(UserCache.class).invalidateAll();
+		return users.stream().map(FtpUser::getName).collect(Collectors.toList());
+	}
+
+	public DefaultFtpSessionFactory sessionFactory(String username) {
+		var sessionFactory = new DefaultFtpSessionFactory();
+		sessionFactory.setHost("localhost");
+		sessionFactory.setPort(this.port);
+		sessionFactory.setUsername(username);
+		sessionFactory.setPassword(username);
+		sessionFactory.setClientMode(FTPClient.PASSIVE_LOCAL_DATA_CONNECTION_MODE);
+		sessionFactory.setFileType(FTPClient.BINARY_FILE_TYPE);
+		return sessionFactory;
+	}
+
+	public int getPort() {
+		return this.port;
+	}
+
+	public ConfigurableApplicationContext getContext() {
+		return this.context;
+	}
+
+	@Override
+	public void close() {
+		this.context.close();
+		FileSystemUtils.deleteRecursively(this.root);
+	}
+}
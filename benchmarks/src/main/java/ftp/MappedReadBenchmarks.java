@@ -0,0 +1,108 @@
+package ftp;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.Assert;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+	* How long one {@code RETR} of a large file takes, read through the {@link MappedFileSystemView} with
+	* {@code ftp.server.mapped-read-threshold} set or with the stock native view when it's unset. The file content cache
+	* and bandwidth shaping are off, so that nothing else wraps the file, and the client reads into one reused buffer, so
+	* that {@code -prof gc} shows what the server allocates:
+	*
+	* <pre>
+	* java -jar target/benchmarks.jar MappedReadBenchmarks -prof gc
+	* </pre>
+	*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MappedReadBenchmarks {
+
+	@Param({"2GB", "4GB"})
+	public String size;
+
+	@Param({"unset", "8MB"})
+	public String mappedReadThreshold;
+
+	private final byte[] buffer = new byte[256 * 1024];
+	private LoadTestServer server;
+	private FTPClient client;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.server = LoadTestServer.start(Map.of(
+			"ftp.server.mapped-read-threshold", this.mappedReadThreshold.equals("unset") ? "" : this.mappedReadThreshold,
+			"ftp.files.cache.enabled", "false",
+			"ftp.bandwidth.enabled", "false"));
+		var username = this.server.provision(1).get(0);
+		var home = new File(this.server.getContext().getBean(FtpUserManager.class).getUserByName(username).getHomeDirectory());
+		Assert.state(home.isDirectory() || home.mkdirs(), "could not create " + home);
+		write(new File(home, "benchmark.bin"), DataSize.parse(this.size).toBytes());
+		this.client = new FTPClient();
+		this.client.connect("localhost", this.server.getPort());
+		Assert.state(this.client.login(username, username), "could not log in: " + this.client.getReplyString());
+		this.client.setFileType(FTP.BINARY_FILE_TYPE);
+		this.client.enterLocalPassiveMode();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		this.client.logout();
+		this.client.disconnect();
+		this.server.close();
+	}
+
+	@Benchmark
+	public long retrieve() throws IOException {
+		var read = 0L;
+		try (var in = this.client.retrieveFileStream("benchmark.bin")) {
+			Assert.state(in != null, "could not read benchmark.bin: " + this.client.getReplyString());
+			int count;
+			while ((count = in.read(this.buffer)) != -1) {
+				read += count;
+			}
+		}
+		Assert.state(this.client.completePendingCommand(), "the server didn't finish sending benchmark.bin: " + this.client.getReplyString());
+		return read;
+	}
+
+	/**
+		* Writes {@code size} bytes that repeat one random megabyte, which leaves the whole file in the page cache.
+		*/
+	private static void write(File file, long size) throws IOException {
+		var block = new byte[1024 * 1024];
+		new Random(42).nextBytes(block);
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for (var written = 0L; written < size; written += block.length) {
+				channel.write(ByteBuffer.wrap(block, 0, (int) Math.min(block.length, size - written)));
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package ftp;
+
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+	* Logins per second for each password algorithm, with and without the cache of successful verifications. The user
+	* cache is on in every case, so that only the password check differs:
+	*
+	* <pre>
+	* java -jar target/benchmarks.jar PasswordBenchmarks
+	* </pre>
+	*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PasswordBenchmarks {
+
+	@Param({"bcrypt", "pbkdf2", "argon2"})
+	public String algorithm;
+
+	@Param({"true", "false"})
+	public boolean cached;
+
+	private EmbeddedDatabase database;
+	private File root;
+	private FtpUserManager userManager;
+	private final UsernamePasswordAuthentication authentication = new UsernamePasswordAuthentication("jlong", "pw");
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.database = new EmbeddedDatabaseBuilder()
+			.setType(EmbeddedDatabaseType.H2)
+			.generateUniqueName(true)
+			.addScript("classpath:schema.sql")
+			.build();
+		this.root = Files.createTempDirectory("ftp-benchmarks").toFile();
+		var passwordVerifier = PasswordVerifier.of(this.algorithm, 10, this.cached ? 10_000 : 0, Duration.ofMinutes(10));
+		this.userManager = new FtpUserManager(HomeShards.of(List.of(this.root), 128), new JdbcTemplate(this.database),
+			UserCache.of(10_000, Duration.ofMinutes(10)), passwordVerifier);
+		this.userManager.save(new FtpUser("jlong", "pw", true, List.of(), -1, null));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.database.shutdown();
+		FileSystemUtils.deleteRecursively(this.root);
+	}
+
+	@Benchmark
+	public User login() throws Exception {
+		return this.userManager.authenticate(this.authentication);
+	}
+}
@@ -0,0 +1,196 @@
+package ftp;
+
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.SocketUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+	* Starts one of the applications in a JVM of its own, {@code --runs} times, and prints how long it took from launching
+	* the JVM to the first connection being accepted: a {@code 220} greeting from the FTP server with {@code --app=server},
+	* or a {@code 200} from {@code /actuator/health} with {@code --app=gateway}, which then also times a first
+	* {@code POST /tree}, to show the routes and flows that were left to the first request work. {@code --fast-start} adds the
+	* {@code fast-start} profile. {@code --cds} first records a class data sharing archive in a run of its own and then
+	* starts every run with it, which needs JDK 13 or later.
+	*
+	* <pre>
+	* java -cp target/benchmarks.jar ftp.StartupComparison --app=server --runs=5
+	* java -cp target/benchmarks.jar ftp.StartupComparison --app=server --runs=5 --fast-start --cds
+	* java -cp target/benchmarks.jar ftp.StartupComparison --app=gateway --runs=5 --fast-start
+	* </pre>
+	*/
+public class StartupComparison {
+
+	private static final long TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+	public static void main(String[] args) throws Exception {
+		var options = new SimpleCommandLinePropertySource(args);
+		var app = options.containsProperty("app") ? options.getProperty("app") : "server";
+		var runs = Integer.parseInt(options.containsProperty("runs") ? options.getProperty("runs") : "5");
+		var fastStart = options.containsProperty("fast-start");
+		var cds = options.containsProperty("cds");
+		var work = Files.createTempDirectory("startup");
+		// the gateway's tenants need a server to log in to, when the first request comes
+		try (var server = app.equals("gateway") ? LoadTestServer.start(Map.of()) : null) {
+			var username = server == null ? null : server.provision(1).get(0);
+			var jvmOptions = new ArrayList<String>();
+			if (cds) {
+				var archive = work.resolve("app.jsa");
+				var training = new ArrayList<>(List.of("-XX:ArchiveClassesAtExit=" + archive));
+				start(app, fastStart, training, work, server, username);
+				if (!Files.exists(archive)) {
+					throw new IllegalStateException("the JVM wrote no archive, see the log in " + work);
+				}
+				jvmOptions.add("-XX:SharedArchiveFile=" + archive);
+			}
+			var connections = new ArrayList<Long>();
+			var requests = new ArrayList<Long>();
+			for (var run = 0; run < runs; run++) {
+				var millis = start(app, fastStart, jvmOptions, work, server, username);
+				connections.add(millis[0]);
+				requests.add(millis[1]);
+			}
+			connections.sort(Long::compare);
+			requests.sort(Long::compare);
+			System.out.println(String.format("%s%s%s: first connection after %d ms (median of %d, fastest %d ms, slowest %d ms)", app,
+				fastStart ? " fast-start" : "", cds ? " with CDS" : "", connections.get(runs / 2), runs, connections.get(0), connections.get(runs - 1)));
+			if (server != null) {
+				System.out.println(String.format("first POST /tree answered after %d ms (median)", requests.get(runs / 2)));
+			}
+		}
+		finally {
+			FileSystemUtils.deleteRecursively(work);
+		}
+	}
+
+	/**
+		* @return the milliseconds from launching the JVM to the first connection it accepted, and to the answer to the
+		* first {@code POST /tree} for the gateway
+		*/
+	private static long[] start(String app, boolean fastStart, List<String> jvmOptions, Path work, LoadTestServer server, String username) throws Exception {
+		var port = SocketUtils.findAvailableTcpPort();
+		var properties = new LinkedHashMap<String, String>();
+		properties.put("spring.main.banner-mode", "off");
+		// both applications' application.properties are on the classpath here, and only one of them wins
+		properties.put("spring.datasource.url", "jdbc:h2:mem:startup;DB_CLOSE_DELAY=-1");
+		properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+		properties.put("spring.datasource.username", "sa");
+		properties.put("spring.datasource.password", "sa");
+		String mainClass;
+		if (app.equals("gateway")) {
+			mainClass = "com.example.integration.IntegrationApplication";
+			properties.put("spring.profiles.active", fastStart ? "gateway,fast-start" : "gateway");
+			properties.put("server.port", Integer.toString(port));
+			properties.put("management.endpoints.web.exposure.include", "health");
+			properties.put("ftp.resume.checkpoint-file", work.resolve("checkpoints.mv.db").toString());
+			for (var tenant : List.of("ftp1", "ftp2")) {
+				properties.put(tenant + ".host", "localhost");
+				properties.put(tenant + ".port", Integer.toString(server.getPort()));
+				properties.put(tenant + ".username", username);
+				properties.put(tenant + ".password", username);
+			}
+		}
+		else {
+			mainClass = "ftp.MinaFtpServerApplication";
+			properties.put("spring.profiles.active", fastStart ? "loadtest,fast-start" : "loadtest");
+			properties.put("server.port", "0");
+			properties.put("ftp.port", Integer.toString(port));
+			properties.put("ftp.root", work.resolve("root").toString());
+		}
+		var command = new ArrayList<String>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(jvmOptions);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(mainClass);
+		properties.forEach((key, value) -> command.add("--" + key + "=" + value));
+		var log = work.resolve("run.log").toFile();
+		var start = System.nanoTime();
+		var process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+		try {
+			while (!(app.equals("gateway") ? healthy(port) : greeted(port))) {
+				if (!process.isAlive() || System.nanoTime() - start > TIMEOUT_NANOS) {
+					throw new IllegalStateException("the " + app + " never took a connection:\n" + tail(log));
+				}
+				Thread.sleep(5);
+			}
+			var connected = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			if (!app.equals("gateway")) {
+				return new long[]{connected, -1};
+			}
+			var status = post("http://localhost:" + port + "/tree?tenant=one");
+			if (status != 200) {
+				throw new IllegalStateException("POST /tree answered " + status + ":\n" + tail(log));
+			}
+			return new long[]{connected, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)};
+		}
+		finally {
+			// a clean stop, so that a training run writes its archive
+			process.destroy();
+			if (!process.waitFor(30, TimeUnit.SECONDS)) {
+				process.destroyForcibly().waitFor();
+			}
+		}
+	}
+
+	private static boolean greeted(int port) {
+		try (var socket = new Socket()) {
+			socket.connect(new InetSocketAddress("localhost", port), 1_000);
+			socket.setSoTimeout(10_000);
+			var greeting = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+			return greeting != null && greeting.startsWith("220");
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static boolean healthy(int port) {
+		try {
+			var connection = (HttpURLConnection) new URL("http://localhost:" + port + "/actuator/health").openConnection();
+			connection.setConnectTimeout(1_000);
+			connection.setReadTimeout(10_000);
+			try {
+				return connection.getResponseCode() == 200;
+			}
+			finally {
+				connection.disconnect();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static int post(String url) throws IOException {
+		var connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod("POST");
+		try {
+			return connection.getResponseCode();
+		}
+		finally {
+			connection.disconnect();
+		}
+	}
+
+	private static String tail(File log) throws IOException {
+		var lines = Files.readAllLines(log.toPath());
+		return String.join("\n", lines.subList(Math.max(0, lines.size() - 40), lines.size()));
+	}
+}
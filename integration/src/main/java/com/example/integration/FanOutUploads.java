@@ -0,0 +1,219 @@
+package com.example.integration;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+	* Delivers one local file to several tenants at once. The file is mapped into memory once and every destination reads
+	* its own view of that mapping, so the source is read from disk a single time however many destinations there are
+	* and however often they retry. Each destination has its own attempts and deadline, and the whole fan-out takes about
+	* as long as its slowest destination. Each destination is written under a temporary name and only renamed once it is
+	* complete, so a failed or timed out attempt leaves nothing under the real name.
+	* <p>
+	* Each destination takes one of the {@code deliveries} threads for as long as it lasts, so their number bounds how
+	* many destinations are written at once, and a fan-out that doesn't find a thread for every destination is turned
+	* away.
+	*/
+@Log4j2
+class FanOutUploads {
+
+	static final String TEMPORARY_SUFFIX = ".writing";
+
+	private final TenantSessionFactories tenantSessionFactories;
+	private final AsyncTaskExecutor deliveries;
+	private final int attempts;
+	private final Duration backoff;
+	private final Duration timeout;
+
+	FanOutUploads(TenantSessionFactories tenantSessionFactories, AsyncTaskExecutor deliveries, int attempts, Duration backoff, Duration timeout) {
+		Assert.isTrue(attempts > 0, "there must be at least one attempt");
+		this.tenantSessionFactories = tenantSessionFactories;
+		this.deliveries = deliveries;
+		this.attempts = attempts;
+		this.backoff = backoff;
+		this.timeout = timeout;
+	}
+
+	/**
+		* @return the result for each tenant, in the order they were given
+		* @throws TaskRejectedException if there aren't enough threads free for every tenant, in which case the deliveries
+		* already started are cancelled
+		*/
+	List<Result> upload(File source, String remotePath, Collection<String> tenants) throws IOException {
+		var start = System.nanoTime();
+		var content = map(source);
+		var deadline = start + this.timeout.toNanos();
+		var futures = new LinkedHashMap<String, Future<Result>>();
+		for (var tenant : tenants) {
+			if (this.tenantSessionFactories.get(tenant) == null) {
+				futures.put(tenant, null);
+				continue;
+			}
+			try {
+				futures.put(tenant, this.deliveries.submit(() -> this.deliver(tenant, content, remotePath, deadline)));
+			}
+			catch (TaskRejectedException e) {
+				futures.values().stream().filter(Objects::nonNull).forEach(future -> future.cancel(true));
+				throw e;
+			}
+		}
+		var results = new ArrayList<Result>();
+		futures.forEach((tenant, future) -> results.add(this.await(tenant, future, deadline)));
+		log.debug("fanned {} out to {} tenant(s) in {}ms", remotePath, tenants.size(), (System.nanoTime() - start) / 1_000_000);
+		return results;
+	}
+
+	private Result deliver(String tenant, List<ByteBuffer> content, String remotePath, long deadline) throws InterruptedException {
+		var template = new FtpRemoteFileTemplate(this.tenantSessionFactories.get(tenant));
+		var temporaryPath = remotePath + TEMPORARY_SUFFIX;
+		var start = System.nanoTime();
+		String error = null;
+		for (var attempt = 1; attempt <= this.attempts; attempt++) {
+			try {
+				template.execute(session -> {
+					try {
+						session.write(new MappedContentInputStream(content, deadline), temporaryPath);
+						session.rename(temporaryPath, remotePath);
+					}
+					catch (IOException | RuntimeException e) {
+						try {
+							session.remove(temporaryPath);
+						}
+						catch (Exception cleanup) {
+							log.warn("could not remove the partial upload " + temporaryPath + " from " + tenant + ": " + cleanup.getMessage());
+						}
+						throw e;
+					}
+					return null;
+				});
+				return new Result(tenant, Status.SUCCEEDED, attempt, millisSince(start), null);
+			}
+			catch (Exception e) {
+				error = NestedExceptionUtils.getMostSpecificCause(e).getMessage();
+				log.warn("attempt " + attempt + " to upload " + remotePath + " to " + tenant + " failed: " + error);
+			}
+			if (System.nanoTime() + this.backoff.toNanos() * attempt >= deadline) {
+				return new Result(tenant, Status.TIMED_OUT, attempt, millisSince(start), error);
+			}
+			if (attempt < this.attempts) {
+				Thread.sleep(this.backoff.toMillis() * attempt);
+			}
+		}
+		return new Result(tenant, Status.FAILED, this.attempts, millisSince(start), error);
+	}
+
+	private Result await(String tenant, Future<Result> future, long deadline) {
+		if (future == null) {
+			return new Result(tenant, Status.FAILED, 0, 0, "there is no tenant called " + tenant);
+		}
+		try {
+			// a little longer than the deadline, so that an upload that notices it has run out of time can say so itself
+			return future.get(Math.max(deadline - System.nanoTime(), 0) + TimeUnit.SECONDS.toNanos(1), TimeUnit.NANOSECONDS);
+		}
+		catch (TimeoutException e) {
+			future.cancel(true);
+			return new Result(tenant, Status.TIMED_OUT, 0, this.timeout.toMillis(), "no reply within " + this.timeout);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.cancel(true);
+			return new Result(tenant, Status.FAILED, 0, 0, "interrupted");
+		}
+		catch (ExecutionException e) {
+			return new Result(tenant, Status.FAILED, 0, 0, NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+		}
+	}
+
+	private static List<ByteBuffer> map(File source) throws IOException {
+		var windows = new ArrayList<ByteBuffer>();
+		try (var channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+			var size = channel.size();
+			for (var position = 0L; position < size; position += Integer.MAX_VALUE) {
+				windows.add(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Integer.MAX_VALUE, size - position)));
+			}
+		}
+		return windows;
+	}
+
+	private static long millisSince(long start) {
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+	enum Status {
+		SUCCEEDED, FAILED, TIMED_OUT
+	}
+
+	@Getter
+	@RequiredArgsConstructor
+	static class Result {
+
+		private final String tenant;
+		private final Status status;
+		private final int attempts;
+		private final long millis;
+		private final String error;
+	}
+
+	/**
+		* Reads its own views of the shared mapping, and gives up once the deadline has passed.
+		*/
+	private static class MappedContentInputStream extends InputStream {
+
+		private final List<ByteBuffer> windows = new ArrayList<>();
+		private final long deadline;
+		private int current;
+
+		MappedContentInputStream(List<ByteBuffer> content, long deadline) {
+			content.forEach(window -> this.windows.add(window.duplicate()));
+			this.deadline = deadline;
+		}
+
+		@Override
+		public int read() throws IOException {
+			var bytes = new byte[1];
+			return this.read(bytes, 0, 1) == -1 ? -1 : bytes[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (System.nanoTime() > this.deadline || Thread.currentThread().isInterrupted()) {
+				throw new InterruptedIOException("the upload ran out of time");
+			}
+			while (this.current < this.windows.size() && !this.windows.get(this.current).hasRemaining()) {
+				this.current++;
+			}
+			if (this.current == this.windows.size()) {
+				return -1;
+			}
+			var window = this.windows.get(this.current);
+			var count = Math.min(length, window.remaining());
+			window.get(bytes, offset, count);
+			return count;
+		}
+	}
+}
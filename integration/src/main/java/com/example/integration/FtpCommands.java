@@ -0,0 +1,36 @@
+package com.example.integration;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+
+/**
+	* The FTP commands that commons-net doesn't wrap (in the version we use), or whose replies it doesn't parse.
+	*/
+final class FtpCommands {
+
+	private FtpCommands() {
+	}
+
+	/**
+		* @return the size of the remote file from {@code SIZE}, or {@code -1} if it doesn't exist
+		*/
+	static long size(FTPClient client, String remotePath) throws IOException {
+		if (client.sendCommand("SIZE", remotePath) != 213) {
+			return -1;
+		}
+		return Long.parseLong(lastWord(client.getReplyString()));
+	}
+
+	/**
+		* @return the hex MD5 checksum of the remote file from {@code MD5}, or {@code null} if the server can't compute it
+		*/
+	static String md5(FTPClient client, String remotePath) throws IOException {
+		return client.sendCommand("MD5", remotePath) == 251 ? lastWord(client.getReplyString()) : null;
+	}
+
+	private static String lastWord(String reply) {
+		var trimmed = reply.trim();
+		return trimmed.substring(trimmed.lastIndexOf(' ') + 1);
+	}
+}
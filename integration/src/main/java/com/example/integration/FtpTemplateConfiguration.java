@@ -1,33 +1,68 @@
 package com.example.integration;
 
 import lombok.extern.log4j.Log4j2;
-import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.integration.ftp.session.DefaultFtpSessionFactory;
-import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.util.unit.DataSize;
 
 import java.io.File;
-import java.io.FileOutputStream;
 
 //@Profile("template")
 @Log4j2
-@Configuration
+@Configuration(proxyBeanMethods = false)
 class FtpTemplateConfiguration {
 
+	/**
+		* Runs once the application is up, so that a slow or missing FTP server doesn't hold up the start or stop it.
+		*/
 	@Bean
-	InitializingBean initializingBean(FtpRemoteFileTemplate template) {
-		return () -> template
-			.execute(session -> {
-				var file = new File(new File(System.getProperty("user.home"), "Desktop"), "hello-local.txt");
-				try (var fout = new FileOutputStream(file)) {
-					session.read("hello.txt", fout);
-				}
+	ApplicationListener<ApplicationReadyEvent> downloadsHello(ParallelFtpTransfers transfers) {
+		return event -> {
+			var file = new File(new File(System.getProperty("user.home"), "Desktop"), "hello-local.txt");
+			try {
+				transfers.download("hello.txt", file);
 				log.info("read " + file.getAbsolutePath());
-				return null;
-			});
+			}
+			catch (Exception e) {
+				log.warn("could not download hello.txt: " + e.getMessage());
+			}
+		};
+	}
+
+	/**
+		* With the {@code gateway} profile this shares the pool the gateway keeps for every session factory, this one
+		* included, and otherwise it keeps a pool of its own. Two ranges are downloaded at once by default, because the
+		* server lets a user have no more than two sessions from one address.
+		*/
+	@Bean
+	ParallelFtpTransfers parallelFtpTransfers(
+		DefaultFtpSessionFactory defaultFtpSessionFactory,
+		ObjectProvider<TenantSessionFactories> tenantSessionFactories,
+		@Value("${ftp.transfers.parallelism:2}") int parallelism,
+		@Value("${ftp.transfers.chunk-threshold:64MB}") DataSize chunkThreshold) {
+		var tenants = tenantSessionFactories.getIfAvailable();
+		var pool = tenants == null ? null : tenants.poolOf(defaultFtpSessionFactory);
+		if (pool != null) {
+			return new ParallelFtpTransfers(pool, parallelism, chunkThreshold.toBytes());
+		}
+		return ParallelFtpTransfers.pooled(defaultFtpSessionFactory, parallelism, chunkThreshold.toBytes());
+	}
+
+	/**
+		* Where the gateway's and the inbound flow's {@link ResumableTransfers resumable transfers} record their progress.
+		* The checkpoints lock their file, so by default they're kept in a directory of each instance's own, see
+		* {@code ftp.state-directory}.
+		*/
+	@Bean
+	TransferCheckpoints transferCheckpoints(
+		@Value("${ftp.resume.checkpoint-file:${ftp.state-directory:${user.home}/Desktop/ftp-state/${server.port:8080}}/transfer-checkpoints.mv.db}") File file) {
+		return new TransferCheckpoints(file);
 	}
 
 	@Bean
@@ -43,9 +78,4 @@ class FtpTemplateConfiguration {
 		defaultFtpSessionFactory.setPort(port);
 		return defaultFtpSessionFactory;
 	}
-
-	@Bean
-	FtpRemoteFileTemplate ftpRemoteFileTemplate(DefaultFtpSessionFactory dsf) {
-		return new FtpRemoteFileTemplate(dsf);
-	}
 }
@@ -1,51 +1,196 @@
 package com.example.integration;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
 import org.apache.commons.net.ftp.FTPFile;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Profile;
-import org.springframework.expression.common.LiteralExpression;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.MessageChannels;
 import org.springframework.integration.file.remote.gateway.AbstractRemoteFileOutboundGateway;
-import org.springframework.integration.file.remote.session.DelegatingSessionFactory;
 import org.springframework.integration.file.support.FileExistsMode;
 import org.springframework.integration.ftp.dsl.Ftp;
 import org.springframework.integration.ftp.session.DefaultFtpSessionFactory;
-import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
 import org.springframework.integration.handler.GenericHandler;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.servlet.function.RouterFunction;
 import org.springframework.web.servlet.function.ServerResponse;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.springframework.web.servlet.function.RouterFunctions.route;
 
+@Log4j2
 @Configuration
 @Profile("gateway")
 class GatewayConfiguration {
 
+	static final String TENANT_HEADER = "tenant";
+
 	@Bean
-	RouterFunction<ServerResponse> routes() {
+	RouterFunction<ServerResponse> routes(
+		TenantUploads uploads,
+		StreamingUploads streamingUploads,
+		FanOutUploads fanOutUploads,
+		ParallelTreeWalker parallelTreeWalker) {
 		var in = this.incoming();
 		return route()
 			.POST("/put/{sfn}", request -> {
 				var name = request.pathVariable("sfn");
-				var msg = MessageBuilder.withPayload(name).build();
+				var tenant = request.param("tenant").orElse(name);
+				var msg = MessageBuilder.withPayload(name).setHeader(TENANT_HEADER, tenant).build();
 				var sent = in.send(msg);
 				return ServerResponse.ok().body(sent);
 			})
+			.POST("/transfers/{sfn}", request -> {
+				var name = request.pathVariable("sfn");
+				var tenant = request.param("tenant").orElse(name);
+				if (!uploads.supports(tenant)) {
+					return ServerResponse.notFound().build();
+				}
+				return uploads
+					.submit(tenant, MessageBuilder.withPayload(name).setHeader(TENANT_HEADER, tenant).build())
+					.map(transfer -> ServerResponse
+						.accepted()
+						.location(request.uriBuilder().replacePath("/transfers/{id}").build(transfer.getId()))
+						.body(transfer))
+					.orElseGet(() -> ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS).build());
+			})
+			.POST("/fan-out/{sfn}", request -> {
+				var name = request.pathVariable("sfn");
+				var tenants = request.params().getOrDefault("tenants", List.of()).stream()
+					.flatMap(tenant -> Arrays.stream(tenant.split(",")))
+					.map(String::trim)
+					.filter(tenant -> !tenant.isEmpty())
+					.distinct()
+					.collect(Collectors.toList());
+				if (tenants.isEmpty()) {
+					return ServerResponse.badRequest().build();
+				}
+				try {
+					var results = fanOutUploads.upload(new File(name), name, tenants);
+					var delivered = results.stream().allMatch(result -> result.getStatus() == FanOutUploads.Status.SUCCEEDED);
+					return ServerResponse.status(delivered ? HttpStatus.OK : HttpStatus.MULTI_STATUS).body(results);
+				}
+				catch (TaskRejectedException e) {
+					return ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS).build();
+				}
+			})
+			.PUT("/files/{name}", request -> {
+				var tenant = request.param("tenant").orElse("");
+				if (!streamingUploads.supports(tenant)) {
+					return ServerResponse.notFound().build();
+				}
+				try {
+					var written = streamingUploads.upload(tenant, request.pathVariable("name"), request.servletRequest().getInputStream());
+					return ServerResponse.ok().body(written);
+				}
+				catch (TaskRejectedException e) {
+					return ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS).build();
+				}
+			})
+			.POST("/tree", request -> {
+				var tenant = request.param("tenant").orElse("");
+				if (!parallelTreeWalker.supports(tenant)) {
+					return ServerResponse.notFound().build();
+				}
+				var msg = MessageBuilder.withPayload(request.param("path").orElse("")).setHeader(TENANT_HEADER, tenant).build();
+				return ServerResponse.ok().body(this.walks().send(msg));
+			})
+			.GET("/transfers/{id}", request -> uploads
+				.find(request.pathVariable("id"))
+				.map(transfer -> ServerResponse.ok().body(transfer))
+				.orElseGet(() -> ServerResponse.notFound().build()))
 			.build();
 	}
 
 	@Bean
-	FtpRemoteFileTemplate ftpRemoteFileTemplate(DelegatingSessionFactory<FTPFile> dsf) {
-		var ftpRemoteFileTemplate = new FtpRemoteFileTemplate(dsf);
-		ftpRemoteFileTemplate.setRemoteDirectoryExpression(new LiteralExpression(""));
-		return ftpRemoteFileTemplate;
+	TenantUploads tenantUploads(
+		TenantSessionFactories tenantSessionFactories,
+		@Value("${ftp.uploads.concurrency:4}") int concurrency,
+		@Value("${ftp.uploads.queue-capacity:100}") int queueCapacity,
+		@Value("${ftp.uploads.retained-transfers:10000}") int retainedTransfers,
+		MeterRegistry meterRegistry) {
+		return new TenantUploads(tenantSessionFactories.tenants(), this.incoming(), concurrency, queueCapacity, retainedTransfers, meterRegistry);
+	}
+
+	/**
+		* Reads the request bodies of streaming uploads, one thread per upload. Nothing is queued, since a queued upload
+		* would only hold its request thread waiting for a pump.
+		*/
+	@Bean
+	ThreadPoolTaskExecutor streamingUploadPumps(@Value("${ftp.uploads.stream-concurrency:16}") int concurrency) {
+		var executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(concurrency);
+		executor.setMaxPoolSize(concurrency);
+		executor.setQueueCapacity(0);
+		executor.setThreadNamePrefix("upload-pump-");
+		return executor;
+	}
+
+	/**
+		* Uploads the request body of {@code PUT /files/{name}} without staging it on this host's disk first.
+		*/
+	@Bean
+	StreamingUploads streamingUploads(
+		TenantSessionFactories tenantSessionFactories,
+		ThreadPoolTaskExecutor streamingUploadPumps,
+		@Value("${ftp.uploads.stream-buffer-size:256KB}") DataSize bufferSize) {
+		return new StreamingUploads(tenantSessionFactories, streamingUploadPumps, (int) bufferSize.toBytes());
+	}
+
+	/**
+		* Writes the destinations of {@code POST /fan-out/{sfn}}, one thread per destination. Nothing is queued, since a
+		* fan-out waits for all of its destinations anyway.
+		*/
+	@Bean
+	ThreadPoolTaskExecutor fanOutDeliveries(@Value("${ftp.fan-out.concurrency:16}") int concurrency) {
+		var executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(concurrency);
+		executor.setMaxPoolSize(concurrency);
+		executor.setQueueCapacity(0);
+		executor.setThreadNamePrefix("fan-out-");
+		return executor;
+	}
+
+	@Bean
+	FanOutUploads fanOutUploads(
+		TenantSessionFactories tenantSessionFactories,
+		ThreadPoolTaskExecutor fanOutDeliveries,
+		@Value("${ftp.fan-out.attempts:3}") int attempts,
+		@Value("${ftp.fan-out.backoff:1s}") Duration backoff,
+		@Value("${ftp.fan-out.timeout:5m}") Duration timeout) {
+		return new FanOutUploads(tenantSessionFactories, fanOutDeliveries, attempts, backoff, timeout);
+	}
+
+	/**
+		* Lists the tenant's remote tree for {@code POST /tree}, a few directories at a time. The in-flight limit stops new
+		* listings, not the ones under way, so a walk can hold up to {@code parallelism} times its largest directory on top.
+		*/
+	@Bean
+	ParallelTreeWalker parallelTreeWalker(
+		TenantSessionFactories tenantSessionFactories,
+		@Value("${ftp.walk.parallelism:8}") int parallelism,
+		@Value("${ftp.walk.in-flight:1000}") int maxInFlight) {
+		return new ParallelTreeWalker(tenantSessionFactories, parallelism, maxInFlight);
 	}
 
 	///
@@ -55,29 +200,136 @@ class GatewayConfiguration {
 	}
 
 	@Bean
+	MessageChannel walks() {
+		return MessageChannels.direct().get();
+	}
+
+	/**
+		* Every file and directory found by a walk, one message each, for whatever wants to know about them.
+		*/
+	@Bean
+	MessageChannel remoteEntries() {
+		return MessageChannels.publishSubscribe().get();
+	}
+
+	/**
+		* Walks the tree under the payload (a remote path, the home directory when it's empty) of the tenant in the
+		* {@link #TENANT_HEADER tenant header}. The splitter takes the entries from the walk as they're listed, so a big tree
+		* is never held in one list, and closes the walk if anything downstream fails.
+		*/
+	@Bean
+	@Lazy(false)
+	IntegrationFlow tree(ParallelTreeWalker parallelTreeWalker) {
+		return f -> f
+			.channel(walks())
+			.handle((GenericHandler<String>) (root, messageHeaders) -> parallelTreeWalker.walk((String) messageHeaders.get(TENANT_HEADER), root))
+			.split()
+			.channel(remoteEntries())
+			.handle((GenericHandler<FTPFile>) (file, messageHeaders) -> {
+				log.debug("found {} for {}", file.getName(), messageHeaders.get(TENANT_HEADER));
+				return null;
+			});
+	}
+
+	/**
+		* Routes each message on its {@link #TENANT_HEADER tenant header} (which defaults to the payload) to that
+		* tenant's own outbound gateway, so nothing about the tenant is kept on the thread doing the upload. The flows are
+		* created at the start even in the {@code fast-start} profile, which would otherwise leave {@link #incoming()}
+		* without a subscriber. The session factories they use don't connect until the first upload.
+		*/
+	@Bean
+	@Lazy(false)
 	IntegrationFlow gateway(
-		FtpRemoteFileTemplate template,
-		DelegatingSessionFactory<FTPFile> dsf) {
+		TenantSessionFactories tenantSessionFactories,
+		MeterRegistry meterRegistry,
+		TransferCheckpoints transferCheckpoints,
+		@Value("${ftp.resume.threshold:64MB}") DataSize resumeThreshold,
+		@Value("${ftp.resume.attempts:5}") int resumeAttempts,
+		@Value("${ftp.resume.backoff:2s}") Duration resumeBackoff,
+		@Value("${ftp.resume.checkpoint-interval:8MB}") DataSize checkpointInterval,
+		@Value("${ftp.uploads.compression:none}") DeltaUploads.Compression compression,
+		@Value("${ftp.uploads.delta:false}") boolean delta,
+		@Value("${ftp.uploads.delta-tail-window:64KB}") DataSize deltaTailWindow) {
 		return f -> f
 			.channel(incoming())
-			.handle((GenericHandler<Object>) (key, messageHeaders) -> {
-				dsf.setThreadKey(key);
-				return key;
-			})
-			.handle(Ftp
-				.outboundGateway(template, AbstractRemoteFileOutboundGateway.Command.PUT, "payload")
-				.fileExistsMode(FileExistsMode.IGNORE)
-				.options(AbstractRemoteFileOutboundGateway.Option.RECURSIVE)
-			)
-			.handle((GenericHandler<Object>) (key, messageHeaders) -> {
-				dsf.clearThreadKey();
+			.enrichHeaders(h -> h.headerExpression(TENANT_HEADER, "payload", false))
+			.route("headers['" + TENANT_HEADER + "']", r -> tenantSessionFactories
+				.tenants()
+				.forEach(tenant -> {
+					var advice = new TenantMetricsAdvice(meterRegistry, tenant);
+					var resumable = new ResumableTransfers(tenant, tenantSessionFactories.get(tenant), transferCheckpoints,
+						resumeAttempts, resumeBackoff, checkpointInterval.toBytes());
+					var stage = compression != DeltaUploads.Compression.NONE || delta ?
+						new DeltaUploads(tenantSessionFactories.get(tenant), compression, delta, (int) deltaTailWindow.toBytes()) : null;
+					// big files can resume after a dropped connection, other files may go through the compression or delta
+					// stage, and everything else (including directories) goes through the gateway
+					r.subFlowMapping(tenant, sf -> sf
+						.<Object, String>route(payload -> {
+							var file = new File(payload.toString());
+							if (file.isFile() && file.length() >= resumeThreshold.toBytes()) {
+								return "resumable";
+							}
+							return file.isFile() && stage != null ? "stage" : "gateway";
+						}, m -> m
+							.subFlowMapping("resumable", rf -> rf
+								.handle((GenericHandler<Object>) (payload, messageHeaders) -> {
+									var local = new File(payload.toString());
+									try {
+										resumable.upload(local, local.getName());
+									}
+									catch (IOException e) {
+										throw new UncheckedIOException(e);
+									}
+									return local.getName();
+								}, e -> e.advice(advice)))
+							.subFlowMapping("stage", df -> df
+								.handle((GenericHandler<Object>) (payload, messageHeaders) -> {
+									var local = new File(payload.toString());
+									return stage.upload(local, local.getName());
+								}, e -> e.advice(advice)))
+							.subFlowMapping("gateway", gf -> gf
+								.handle(Ftp
+									.outboundGateway(tenantSessionFactories.get(tenant), AbstractRemoteFileOutboundGateway.Command.PUT, "payload")
+									.remoteDirectoryExpression("''")
+									.fileExistsMode(FileExistsMode.IGNORE)
+									.options(AbstractRemoteFileOutboundGateway.Option.RECURSIVE),
+									e -> e.advice(advice)))));
+				}))
+			.handle((GenericHandler<Object>) (remotePath, messageHeaders) -> {
+				log.debug("uploaded {} for {}", remotePath, messageHeaders.get(TENANT_HEADER));
 				return null;
 			});
 	}
 
 	@Bean
-	DelegatingSessionFactory<FTPFile> dsf(Map<String, DefaultFtpSessionFactory> ftpSessionFactories) {
-		return new DelegatingSessionFactory<>(ftpSessionFactories::get);
+	TenantSessionFactories tenantSessionFactories(
+		Map<String, DefaultFtpSessionFactory> ftpSessionFactories,
+		@Value("${ftp.pool.enabled:true}") boolean pooled,
+		@Value("${ftp.pool.size:10}") int poolSize,
+		@Value("${ftp.pool.wait-timeout:30s}") Duration waitTimeout,
+		@Value("${ftp.pool.idle-timeout:4m}") Duration idleTimeout) {
+		return pooled ?
+			new TenantSessionFactories(ftpSessionFactories, poolSize, waitTimeout, idleTimeout) :
+			new TenantSessionFactories(ftpSessionFactories);
+	}
+
+	@Bean
+	ApplicationListener<ApplicationReadyEvent> prewarmsSessions(
+		TenantSessionFactories tenantSessionFactories,
+		@Value("${ftp.pool.prewarm:1}") int sessions) {
+		return event -> tenantSessionFactories.prewarm(sessions);
+	}
+
+	@Bean
+	ApplicationListener<ApplicationReadyEvent> evictsIdleSessions(
+		TenantSessionFactories tenantSessionFactories,
+		TaskScheduler taskScheduler,
+		@Value("${ftp.pool.eviction-interval:30s}") Duration interval) {
+		return event -> {
+			if (tenantSessionFactories.isPooled()) {
+				taskScheduler.scheduleWithFixedDelay(tenantSessionFactories::evictIdle, interval);
+			}
+		};
 	}
 
 	@Bean
@@ -1,23 +1,45 @@
 package com.example.integration;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.extern.log4j.Log4j2;
+import org.apache.commons.net.ftp.FTPFile;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Profile;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.IntegrationFlows;
+import org.springframework.integration.dsl.MessageChannels;
+import org.springframework.integration.file.filters.ChainFileListFilter;
 import org.springframework.integration.ftp.dsl.Ftp;
+import org.springframework.integration.ftp.filters.FtpSimplePatternFileListFilter;
 import org.springframework.integration.ftp.session.DefaultFtpSessionFactory;
+import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.util.Assert;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.servlet.function.RouterFunction;
+import org.springframework.web.servlet.function.ServerResponse;
 
 import java.io.File;
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 
+import static org.springframework.web.servlet.function.RouterFunctions.route;
+
 @Configuration
 @Log4j2
 @Profile("inbound")
+@Lazy(false)
 class InboundConfiguration {
 
+	private static final String PATTERN = "*.txt";
+
 	@Bean
 	DefaultFtpSessionFactory defaultFtpSessionFactory(
 		@Value("${ftp1.username}") String username,
@@ -33,20 +55,112 @@ class InboundConfiguration {
 	}
 
 	@Bean
-	IntegrationFlow inbound(DefaultFtpSessionFactory ftpSf) {
-		var localDirectory = new File(new File(System.getProperty("user.home"), "Desktop"), "local");
+	SyncMetrics syncMetrics() {
+		return new SyncMetrics();
+	}
+
+	@Bean
+	MeterBinder syncMeters(SyncMetrics syncMetrics, @Value("${ftp1.username}") String tenant) {
+		return registry -> {
+			var tags = Tags.of("tenant", tenant);
+			Gauge.builder("ftp.inbound.list.duration", syncMetrics, SyncMetrics::getListMillis).tags(tags).baseUnit("milliseconds").register(registry);
+			Gauge.builder("ftp.inbound.listed", syncMetrics, SyncMetrics::getListed).tags(tags).register(registry);
+			Gauge.builder("ftp.inbound.delta", syncMetrics, SyncMetrics::getDelta).tags(tags).register(registry);
+			Gauge.builder("ftp.inbound.index.size", syncMetrics, SyncMetrics::getIndexSize).tags(tags).register(registry);
+		};
+	}
+
+	/**
+		* The index locks its file, so by default it's kept in a directory of each instance's own, see
+		* {@code ftp.state-directory}.
+		*/
+	@Bean
+	RemoteFileIndexFilter remoteFileIndexFilter(
+		@Value("${ftp.sync.index-file:${ftp.state-directory:${user.home}/Desktop/ftp-state/${server.port:8080}}/local-index.mv.db}") File indexFile,
+		@Value("${ftp.sync.index-cache-size-mb:16}") int cacheSizeMb) {
+		return new RemoteFileIndexFilter(indexFile, cacheSizeMb, this.syncMetrics());
+	}
+
+	@Bean
+	IntegrationFlow inbound(
+		DefaultFtpSessionFactory ftpSf,
+		RemoteFileIndexFilter indexFilter,
+		@Value("${ftp.sync.incremental:true}") boolean incremental,
+		@Value("${ftp.sync.max-fetch-size:1000}") int maxFetchSize,
+		@Value("${ftp1.username}") String tenant,
+		MeterRegistry meterRegistry) {
+		var received = Counter.builder("ftp.inbound.files").tag("tenant", tenant).register(meterRegistry);
 		var spec = Ftp
 			.inboundAdapter(ftpSf)
 			.autoCreateLocalDirectory(true)
-			.patternFilter("*.txt")
-			.localDirectory(localDirectory);
+			.localDirectory(this.localDirectory());
+		if (incremental) {
+			spec
+				.filter(new ChainFileListFilter<FTPFile>()
+					.addFilter(new FtpSimplePatternFileListFilter(PATTERN))
+					.addFilter(indexFilter))
+				.localFilter(indexFilter.localFilter())
+				.preserveTimestamp(true)
+				.maxFetchSize(maxFetchSize);
+		}
+		else {
+			spec.patternFilter(PATTERN);
+		}
 		return IntegrationFlows
-			.from(spec, pc -> pc.poller(pm -> pm.fixedRate(1000, TimeUnit.MILLISECONDS)))
+			.from(spec, pc -> pc.poller(pm -> pm
+				.fixedRate(1000, TimeUnit.MILLISECONDS)
+				.maxMessagesPerPoll(incremental ? maxFetchSize : 1)
+				.advice(this.syncMetrics())))
+			.channel(this.inboundFiles())
 			.handle((file, messageHeaders) -> {
-				log.info("new file: " + file + ".");
-				messageHeaders.forEach((k, v) -> log.info(k + ':' + v));
+				received.increment();
+				log.debug("new file: {} {}", file, messageHeaders);
 				return null;
 			})
 			.get();
 	}
+
+	/**
+		* Where both polled and notified files are delivered.
+		*/
+	@Bean
+	MessageChannel inboundFiles() {
+		return MessageChannels.direct().get();
+	}
+
+	@Bean
+	NotifiedFileFetcher notifiedFileFetcher(
+		DefaultFtpSessionFactory ftpSf,
+		RemoteFileIndexFilter indexFilter,
+		TransferCheckpoints transferCheckpoints,
+		@Value("${ftp1.username}") String username,
+		@Value("${ftp.resume.attempts:5}") int attempts,
+		@Value("${ftp.resume.backoff:2s}") Duration backoff,
+		@Value("${ftp.resume.checkpoint-interval:8MB}") DataSize checkpointInterval) {
+		var transfers = new ResumableTransfers(username, ftpSf, transferCheckpoints, attempts, backoff, checkpointInterval.toBytes());
+		return new NotifiedFileFetcher(new FtpRemoteFileTemplate(ftpSf), transfers, indexFilter, this.localDirectory(), PATTERN, this.inboundFiles());
+	}
+
+	/**
+		* Receives the upload notifications that the server posts, so a file can be fetched straight away.
+		*/
+	@Bean
+	RouterFunction<ServerResponse> notifications(NotifiedFileFetcher fetcher, @Value("${ftp1.username}") String username) {
+		return route()
+			.POST("/notifications", request -> {
+				var user = request.param("user").orElse(null);
+				var path = request.param("path").orElse(null);
+				if (path == null || !username.equals(user)) {
+					return ServerResponse.noContent().build();
+				}
+				return fetcher.fetch(path) ? ServerResponse.ok().build() : ServerResponse.noContent().build();
+			})
+			.build();
+	}
+
+	private File localDirectory() {
+		var localDirectory = new File(new File(System.getProperty("user.home"), "Desktop"), "local");
+		Assert.isTrue(localDirectory.exists() || localDirectory.mkdirs(), "the local directory must exist");
+		return localDirectory;
+	}
 }
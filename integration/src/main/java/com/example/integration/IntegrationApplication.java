@@ -1,9 +1,18 @@
 package com.example.integration;
 
 import org.springframework.boot.SpringApplication;
-import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Import;
 
-@SpringBootApplication
+/**
+	* The configurations are listed here rather than found by scanning the classpath, which takes part of the start and
+	* leaves nothing to be discovered at run time, for an ahead-of-time build or a class data sharing archive. Which of
+	* them apply still depends on the active profiles, {@code inbound} and {@code gateway}.
+	*/
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@Import({FtpTemplateConfiguration.class, InboundConfiguration.class, GatewayConfiguration.class})
 public class IntegrationApplication {
 
 	public static void main(String[] args) {
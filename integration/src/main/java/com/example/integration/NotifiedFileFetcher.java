@@ -0,0 +1,65 @@
+package com.example.integration;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.integration.file.FileHeaders;
+import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.PatternMatchUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+	* Fetches a single file as soon as the server says it was written, instead of waiting for the next poll. The file is
+	* claimed in the {@link RemoteFileIndexFilter index} first, so the poller, which stays on as a fallback, skips it, and
+	* is downloaded with {@link ResumableTransfers} so that a dropped connection doesn't start it again from the beginning.
+	*/
+@Log4j2
+@RequiredArgsConstructor
+class NotifiedFileFetcher {
+
+	private final FtpRemoteFileTemplate template;
+	private final ResumableTransfers transfers;
+	private final RemoteFileIndexFilter indexFilter;
+	private final File localDirectory;
+	private final String pattern;
+	private final MessageChannel out;
+
+	/**
+		* @param path the path of the file, relative to the user's home directory
+		* @return whether the file was fetched
+		*/
+	boolean fetch(String path) {
+		var name = path.startsWith("/") ? path.substring(1) : path;
+		if (name.contains("/") || !PatternMatchUtils.simpleMatch(this.pattern, name)) {
+			return false;
+		}
+		var local = new File(this.localDirectory, name);
+		var claimed = this.template.execute(session -> {
+			var files = session.list(name);
+			return files.length == 1 && this.indexFilter.claim(files[0]) ? files[0] : null;
+		});
+		var fetched = claimed != null;
+		if (fetched) {
+			try {
+				this.transfers.download(name, local);
+			}
+			catch (IOException e) {
+				// the poller gets another go at it
+				this.indexFilter.remove(claimed);
+				throw new UncheckedIOException(e);
+			}
+			log.debug("fetched " + name + " on notification");
+			this.out.send(MessageBuilder
+				.withPayload(local)
+				.setHeader(FileHeaders.FILENAME, name)
+				.setHeader(FileHeaders.REMOTE_FILE, name)
+				.setHeader(FileHeaders.REMOTE_DIRECTORY, "")
+				.build());
+		}
+		return fetched;
+	}
+}
@@ -0,0 +1,238 @@
+package com.example.integration;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.file.remote.session.CachingSessionFactory;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.util.Assert;
+import org.springframework.util.DigestUtils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+	* Downloads through an {@link FtpRemoteFileTemplate} over several pooled sessions at once. A large file is split into
+	* byte ranges that are fetched with {@code REST} offsets and written into a preallocated local file, and a directory
+	* tree is fetched a few files at a time.
+	*/
+@Log4j2
+class ParallelFtpTransfers implements DisposableBean {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FtpRemoteFileTemplate template;
+	private final CachingSessionFactory<FTPFile> ownPool;
+	private final int parallelism;
+	private final long chunkThreshold;
+	private final ExecutorService executor;
+
+	/**
+		* @param sessionFactory a pool of sessions, which is shared with whoever else uses it
+		*/
+	ParallelFtpTransfers(SessionFactory<FTPFile> sessionFactory, int parallelism, long chunkThreshold) {
+		this(sessionFactory, null, parallelism, chunkThreshold);
+	}
+
+	private ParallelFtpTransfers(SessionFactory<FTPFile> sessionFactory, CachingSessionFactory<FTPFile> ownPool, int parallelism, long chunkThreshold) {
+		Assert.isTrue(parallelism > 0, "the parallelism must be positive");
+		this.template = new FtpRemoteFileTemplate(sessionFactory);
+		this.template.afterPropertiesSet();
+		this.ownPool = ownPool;
+		this.parallelism = parallelism;
+		this.chunkThreshold = chunkThreshold;
+		this.executor = Executors.newFixedThreadPool(parallelism);
+	}
+
+	/**
+		* Keeps a pool of its own of up to {@code parallelism} sessions, which are checked with a {@code NOOP} when borrowed
+		* and closed when this is destroyed.
+		*/
+	static ParallelFtpTransfers pooled(SessionFactory<FTPFile> sessionFactory, int parallelism, long chunkThreshold) {
+		var pool = new CachingSessionFactory<>(sessionFactory, parallelism);
+		pool.setTestSession(true);
+		return new ParallelFtpTransfers(pool, pool, parallelism, chunkThreshold);
+	}
+
+	/**
+		* Downloads one file, in parallel byte ranges if it is at least as big as the chunk threshold, and then checks the
+		* size and (where the server supports the {@code MD5} command) the checksum of the result.
+		*/
+	void download(String remotePath, File local) throws IOException {
+		var size = this.size(remotePath);
+		if (size < this.chunkThreshold || this.parallelism == 1) {
+			this.readWhole(remotePath, local);
+		}
+		else {
+			try (var file = new RandomAccessFile(local, "rw")) {
+				file.setLength(size);
+			}
+			var chunk = (size + this.parallelism - 1) / this.parallelism;
+			var ranges = new ArrayList<Callable<Object>>();
+			try (var channel = FileChannel.open(local.toPath(), StandardOpenOption.WRITE)) {
+				for (var offset = 0L; offset < size; offset += chunk) {
+					var start = offset;
+					var length = Math.min(chunk, size - offset);
+					ranges.add(() -> this.readRange(remotePath, channel, start, length, start + length == size));
+				}
+				this.awaitAll(ranges);
+			}
+		}
+		this.verify(remotePath, local, size);
+	}
+
+	/**
+		* Downloads every file under the remote directory into the local directory, {@code parallelism} files at a time.
+		*/
+	void downloadTree(String remoteDirectory, File localDirectory) throws IOException {
+		var files = this.template.execute(session -> {
+			var found = new ArrayList<String>();
+			this.walk(session, remoteDirectory, found);
+			return found;
+		});
+		var downloads = new ArrayList<Callable<Object>>();
+		for (var remotePath : files) {
+			var local = new File(localDirectory, remotePath.substring(remoteDirectory.length()));
+			Assert.isTrue(local.getParentFile().exists() || local.getParentFile().mkdirs(), "the directory " + local.getParent() + " must exist");
+			downloads.add(() -> {
+				this.readWhole(remotePath, local);
+				return null;
+			});
+		}
+		this.awaitAll(downloads);
+		log.info("downloaded " + files.size() + " file(s) from " + remoteDirectory);
+	}
+
+	private void walk(Session<FTPFile> session, String directory, List<String> found) throws IOException {
+		for (var file : session.list(directory)) {
+			var name = file.getName();
+			if (name.equals(".") || name.equals("..")) {
+				continue;
+			}
+			var path = directory.endsWith("/") ? directory + name : directory + "/" + name;
+			if (file.isDirectory()) {
+				this.walk(session, path, found);
+			}
+			else {
+				found.add(path);
+			}
+		}
+	}
+
+	private long size(String remotePath) {
+		var files = this.template.execute(session -> session.list(remotePath));
+		Assert.state(files != null && files.length == 1 && files[0].isFile(), remotePath + " must be a single file");
+		return files[0].getSize();
+	}
+
+	private void readWhole(String remotePath, File local) {
+		this.template.execute(session -> {
+			try (var out = new FileOutputStream(local)) {
+				session.read(remotePath, out);
+			}
+			return null;
+		});
+	}
+
+	private Object readRange(String remotePath, FileChannel channel, long start, long length, boolean last) {
+		return this.template.execute(session -> {
+			var client = (FTPClient) session.getClientInstance();
+			client.setRestartOffset(start);
+			var in = client.retrieveFileStream(remotePath);
+			Assert.state(in != null, "could not RETR " + remotePath + " from " + start + ": " + client.getReplyString());
+			try {
+				this.copy(in, channel, start, length);
+			}
+			finally {
+				in.close();
+			}
+			// every range but the last hangs up before the server has sent everything, so that session can't be reused
+			if (!client.completePendingCommand() || !last) {
+				session.dirty();
+			}
+			return null;
+		});
+	}
+
+	private void copy(InputStream in, FileChannel channel, long position, long length) throws IOException {
+		var bytes = new byte[BUFFER_SIZE];
+		var remaining = length;
+		while (remaining > 0) {
+			var read = in.read(bytes, 0, (int) Math.min(bytes.length, remaining));
+			if (read < 0) {
+				throw new EOFException("the range ended " + remaining + " bytes early");
+			}
+			var buffer = ByteBuffer.wrap(bytes, 0, read);
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			remaining -= read;
+		}
+	}
+
+	private void verify(String remotePath, File local, long size) throws IOException {
+		Assert.state(local.length() == size, "expected " + size + " bytes for " + remotePath + " but got " + local.length());
+		var remote = this.template.execute(session -> FtpCommands.md5((FTPClient) session.getClientInstance(), remotePath));
+		if (remote == null) {
+			log.debug("the server can't checksum " + remotePath + ", so only its size was checked");
+			return;
+		}
+		String checksum;
+		try (var in = new FileInputStream(local)) {
+			checksum = DigestUtils.md5DigestAsHex(in);
+		}
+		Assert.state(checksum.equalsIgnoreCase(remote), "the checksum of " + local.getAbsolutePath() + " doesn't match " + remotePath);
+	}
+
+	private void awaitAll(List<Callable<Object>> tasks) throws IOException {
+		try {
+			for (Future<Object> future : this.executor.invokeAll(tasks)) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while transferring", e);
+		}
+		catch (ExecutionException e) {
+			var cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+		if (this.ownPool != null) {
+			this.ownPool.destroy();
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package com.example.integration;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+	* Walks a tenant's remote tree with up to {@code parallelism} directories listed at once, each on a session of its
+	* own from the tenant's pool, instead of one {@code LIST} after another on a single session like the outbound
+	* gateway's recursive {@code ls}. Directories are listed with {@code MLSD} where the server has {@code MLST}, which
+	* gives exact sizes and UTC timestamps without parsing {@code ls} output.
+	* <p>
+	* The entries come out of an {@link Iterator} as they're found, named by their path relative to the root like the
+	* gateway names them, so a splitter can pass them on one at a time. When the consumer falls behind, the walk starts no
+	* more listings until it catches up, and the workers go on listing for the other walks. The limit is only checked
+	* before a listing starts, and a listing hands over its whole directory at once, because FTP lists a directory in one
+	* reply and a worker that waited for room would hold up the other walks. So a walk holds up to
+	* {@code maxInFlight + parallelism} times the largest directory's entries, not {@code maxInFlight}: a tree with
+	* directories of a million files needs the heap for a few million {@link FTPFile}s however low the limit is.
+	*/
+@Log4j2
+class ParallelTreeWalker implements DisposableBean {
+
+	private static final FTPFile END = new FTPFile();
+
+	private final TenantSessionFactories tenantSessionFactories;
+	private final int parallelism;
+	private final int maxInFlight;
+	private final ExecutorService executor;
+	private final Map<String, Boolean> mlsd = new ConcurrentHashMap<>();
+
+	ParallelTreeWalker(TenantSessionFactories tenantSessionFactories, int parallelism, int maxInFlight) {
+		Assert.isTrue(parallelism > 0, "the parallelism must be positive");
+		Assert.isTrue(maxInFlight > 0, "the in-flight limit must be positive");
+		this.tenantSessionFactories = tenantSessionFactories;
+		this.parallelism = parallelism;
+		this.maxInFlight = maxInFlight;
+		var threads = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			var thread = new Thread(runnable, "tree-walker-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	boolean supports(String tenant) {
+		return this.tenantSessionFactories.get(tenant) != null;
+	}
+
+	/**
+		* @return every file and directory under {@code root}, which stops the walk if it's closed before the end
+		*/
+	Walk walk(String tenant, String root) {
+		var sessionFactory = this.tenantSessionFactories.get(tenant);
+		Assert.notNull(sessionFactory, "there is no tenant called " + tenant);
+		var walk = new Walk(tenant, sessionFactory, root);
+		walk.schedule();
+		return walk;
+	}
+
+	private FTPFile[] list(String tenant, SessionFactory<FTPFile> sessionFactory, String directory) throws IOException {
+		try (var session = sessionFactory.getSession()) {
+			var client = (FTPClient) session.getClientInstance();
+			// FEAT is asked once per tenant, on whichever session gets there first
+			var mlsd = this.mlsd.computeIfAbsent(tenant, t -> {
+				try {
+					var supported = client.hasFeature("MLST");
+					log.debug("listing {} with {}", t, supported ? "MLSD" : "LIST");
+					return supported;
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			var path = directory.isEmpty() ? null : directory;
+			var files = mlsd ? client.mlistDir(path) : client.listFiles(path);
+			// commons-net returns an empty array for a failed listing, so the reply is the only way to tell, and Mina even
+			// answers MLSD for a missing directory with 226, so an empty directory is checked with an MLST as well
+			if (files.length == 0 && (!FTPReply.isPositiveCompletion(client.getReplyCode()) || (mlsd && path != null && client.mlistFile(path) == null))) {
+				throw new IOException("could not list " + directory + ": " + client.getReplyString());
+			}
+			return files;
+		}
+	}
+
+	/**
+		* {@code MLSD} may list the directory itself and its parent, as {@code type=cdir} and {@code type=pdir}, which
+		* commons-net takes for ordinary directories.
+		*/
+	private static boolean isSelfOrParent(FTPFile file) {
+		var raw = file.getRawListing();
+		if (raw == null) {
+			return false;
+		}
+		var facts = raw.toLowerCase(Locale.ROOT);
+		return facts.contains("type=cdir;") || facts.contains("type=pdir;");
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+		* One walk, which directories are added to as they're found and which ends when the last of them is listed. The
+		* walk lists no more than {@code parallelism} of them at once, and starts none while the consumer has
+		* {@code maxInFlight} entries or more to read, so the workers never wait for a consumer and a slow one only holds up
+		* its own walk. The listings already under way still add all they find, whatever the consumer has left to read.
+		*/
+	class Walk implements Iterator<FTPFile>, AutoCloseable {
+
+		private final String tenant;
+		private final SessionFactory<FTPFile> sessionFactory;
+		private final BlockingQueue<FTPFile> entries = new LinkedBlockingQueue<>();
+		private final Deque<String[]> directories = new ArrayDeque<>();
+		private final AtomicReference<IOException> failure = new AtomicReference<>();
+		private int listing;
+		private boolean ended;
+		private volatile boolean closed;
+		private FTPFile next;
+
+		private Walk(String tenant, SessionFactory<FTPFile> sessionFactory, String root) {
+			this.tenant = tenant;
+			this.sessionFactory = sessionFactory;
+			this.directories.add(new String[]{root, ""});
+		}
+
+		private synchronized void schedule() {
+			while (!this.ended && !this.directories.isEmpty() && this.listing < ParallelTreeWalker.this.parallelism
+				&& this.entries.size() < ParallelTreeWalker.this.maxInFlight) {
+				var directory = this.directories.poll();
+				this.listing++;
+				ParallelTreeWalker.this.executor.execute(() -> this.visit(directory[0], directory[1]));
+			}
+			if (!this.ended && this.directories.isEmpty() && this.listing == 0) {
+				this.end();
+			}
+		}
+
+		private void visit(String directory, String relative) {
+			FTPFile[] files;
+			try {
+				files = this.closed ? new FTPFile[0] : ParallelTreeWalker.this.list(this.tenant, this.sessionFactory, directory);
+			}
+			catch (IOException | RuntimeException e) {
+				this.failed(e instanceof IOException ? (IOException) e : new IOException(e));
+				return;
+			}
+			this.listed(directory, relative, files);
+		}
+
+		private synchronized void listed(String directory, String relative, FTPFile[] files) {
+			this.listing--;
+			if (this.ended) {
+				return;
+			}
+			for (var file : files) {
+				var name = file.getName();
+				if (name.equals(".") || name.equals("..") || isSelfOrParent(file)) {
+					continue;
+				}
+				var path = relative.isEmpty() ? name : relative + "/" + name;
+				file.setName(path);
+				this.entries.add(file);
+				if (file.isDirectory()) {
+					this.directories.add(new String[]{directory.isEmpty() || directory.endsWith("/") ? directory + name : directory + "/" + name, path});
+				}
+			}
+			this.schedule();
+		}
+
+		/**
+			* Ends the walk after the entries already found, which the consumer still gets before the failure.
+			*/
+		private synchronized void failed(IOException failure) {
+			this.listing--;
+			if (!this.ended) {
+				this.failure.compareAndSet(null, failure);
+				this.end();
+			}
+		}
+
+		private void end() {
+			this.ended = true;
+			this.directories.clear();
+			this.entries.add(END);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.next == null) {
+				try {
+					this.next = this.entries.take();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					this.close();
+					throw new IllegalStateException("interrupted while walking the tree", e);
+				}
+				if (this.next != END) {
+					// reading an entry may have made room for another listing
+					this.schedule();
+				}
+			}
+			if (this.next == END) {
+				// put the end back so that asking again gives the same answer
+				this.entries.add(END);
+				this.next = null;
+				var failure = this.failure.get();
+				if (failure != null && !this.closed) {
+					throw new UncheckedIOException(failure);
+				}
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public FTPFile next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			var file = this.next;
+			this.next = null;
+			return file;
+		}
+
+		/**
+			* Drops whatever was found but not read, and lists nothing more. The listings under way finish, but what they find
+			* is dropped too.
+			*/
+		@Override
+		public synchronized void close() {
+			this.closed = true;
+			this.ended = true;
+			this.directories.clear();
+			this.entries.clear();
+			this.entries.add(END);
+			this.next = null;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.example.integration;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.net.ftp.FTPFile;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.file.filters.FileListFilter;
+import org.springframework.integration.file.filters.ResettableFileListFilter;
+import org.springframework.integration.file.filters.ReversibleFileListFilter;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+	* Accepts only the remote files that are new or whose size or modification time changed since they were last
+	* synchronized. The index of what has been seen lives in an H2 {@link MVStore} on disk, so it survives restarts and
+	* only a bounded page cache of it is ever on the heap.
+	*/
+@Log4j2
+class RemoteFileIndexFilter implements ReversibleFileListFilter<FTPFile>, ResettableFileListFilter<FTPFile>, DisposableBean {
+
+	private final MVStore store;
+	private final MVMap<String, String> index;
+	private final Set<String> pending = ConcurrentHashMap.newKeySet();
+	private final SyncMetrics metrics;
+
+	RemoteFileIndexFilter(File file, int cacheSizeMb, SyncMetrics metrics) {
+		Assert.isTrue(file.getParentFile().exists() || file.getParentFile().mkdirs(), "the directory for the index must exist");
+		this.store = new MVStore.Builder()
+			.fileName(file.getAbsolutePath())
+			.cacheSize(cacheSizeMb)
+			.compress()
+			.open();
+		this.index = this.store.openMap("remote-files");
+		this.metrics = metrics;
+	}
+
+	@Override
+	public List<FTPFile> filterFiles(FTPFile[] files) {
+		var delta = new ArrayList<FTPFile>();
+		for (var file : files) {
+			if (file != null && file.isFile() && this.record(file)) {
+				this.pending.add(file.getName());
+				delta.add(file);
+			}
+		}
+		if (!delta.isEmpty()) {
+			this.store.commit();
+			log.info("found " + delta.size() + " new or changed file(s) out of " + files.length);
+		}
+		this.metrics.listed(files.length, delta.size(), this.index.sizeAsLong());
+		return delta;
+	}
+
+	/**
+		* Records a file that was fetched some other way, so that the poller neither fetches nor emits it again.
+		*
+		* @return whether the file was new or changed
+		*/
+	boolean claim(FTPFile file) {
+		var claimed = this.record(file);
+		if (claimed) {
+			this.store.commit();
+		}
+		return claimed;
+	}
+
+	private boolean record(FTPFile file) {
+		var name = file.getName();
+		var entry = file.getSize() + ":" + (file.getTimestamp() == null ? 0 : file.getTimestamp().getTimeInMillis());
+		var previous = this.index.get(name);
+		if (entry.equals(previous)) {
+			return false;
+		}
+		return previous == null ? this.index.putIfAbsent(name, entry) == null : this.index.replace(name, previous, entry);
+	}
+
+	@Override
+	public void rollback(FTPFile file, List<FTPFile> files) {
+		var rolledBack = false;
+		for (var candidate : files) {
+			rolledBack |= candidate == file;
+			if (rolledBack) {
+				this.remove(candidate);
+			}
+		}
+	}
+
+	@Override
+	public boolean remove(FTPFile file) {
+		this.pending.remove(file.getName());
+		var removed = this.index.remove(file.getName()) != null;
+		this.store.commit();
+		return removed;
+	}
+
+	/**
+		* The filter for the local directory, which accepts a downloaded file only once, right after it was synchronized.
+		*/
+	FileListFilter<File> localFilter() {
+		return files -> Arrays.stream(files)
+			.filter(file -> this.pending.remove(file.getName()))
+			.collect(Collectors.toList());
+	}
+
+	long size() {
+		return this.index.sizeAsLong();
+	}
+
+	@Override
+	public void destroy() {
+		this.store.close();
+	}
+}
@@ -0,0 +1,229 @@
+package com.example.integration;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.Assert;
+import org.springframework.util.DigestUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+	* Uploads and downloads that survive dropped connections. A transfer goes to a {@code .part} file, and when a
+	* connection breaks the next attempt carries on from the last confirmed offset with {@code REST} (downloads) or
+	* {@code APPE} (uploads) instead of starting again from byte zero. The offsets are kept in the
+	* {@link TransferCheckpoints}, so a transfer also resumes after a restart. A finished transfer is checked by size and,
+	* where the server supports the {@code MD5} command, by checksum before it is renamed into place.
+	*/
+@Log4j2
+class ResumableTransfers {
+
+	static final String PART_SUFFIX = ".part";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String name;
+	private final FtpRemoteFileTemplate template;
+	private final TransferCheckpoints checkpoints;
+	private final int attempts;
+	private final Duration backoff;
+	private final long checkpointInterval;
+	private final LongAdder transferred = new LongAdder();
+
+	/**
+		* @param name distinguishes the checkpoints of this server from those of any other
+		*/
+	ResumableTransfers(String name, SessionFactory<FTPFile> sessionFactory, TransferCheckpoints checkpoints, int attempts, Duration backoff, long checkpointInterval) {
+		Assert.isTrue(attempts > 0, "there must be at least one attempt");
+		Assert.isTrue(checkpointInterval > 0, "the checkpoint interval must be positive");
+		this.name = name;
+		this.template = new FtpRemoteFileTemplate(sessionFactory);
+		this.checkpoints = checkpoints;
+		this.attempts = attempts;
+		this.backoff = backoff;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+		* Uploads the local file unless the remote file already exists and no earlier upload of it is unfinished, which
+		* matches {@code FileExistsMode.IGNORE}.
+		*/
+	void upload(File local, String remotePath) throws IOException {
+		var key = this.name + ":put:" + remotePath;
+		var fingerprint = local.length() + ":" + local.lastModified();
+		this.retry("upload " + local.getName() + " to " + remotePath, () -> this.template.execute(session -> {
+			var client = (FTPClient) session.getClientInstance();
+			var confirmed = this.checkpoints.offset(key, fingerprint);
+			if (confirmed < 0 && session.exists(remotePath)) {
+				return null;
+			}
+			var part = remotePath + PART_SUFFIX;
+			var remoteSize = confirmed < 0 ? -1 : FtpCommands.size(client, part);
+			var start = remoteSize >= 0 && remoteSize <= local.length() ? remoteSize : 0;
+			this.checkpoints.record(key, fingerprint, start);
+			try (var channel = FileChannel.open(local.toPath(), StandardOpenOption.READ)) {
+				channel.position(start);
+				var out = start == 0 ? client.storeFileStream(part) : client.appendFileStream(part);
+				Assert.state(out != null, "could not write " + part + " from " + start + ": " + client.getReplyString());
+				this.copy(channel, out, start, offset -> this.checkpoints.record(key, fingerprint, offset));
+				Assert.state(client.completePendingCommand(), "the server didn't confirm " + part + ": " + client.getReplyString());
+			}
+			catch (IOException e) {
+				session.dirty();
+				throw e;
+			}
+			if (!this.verify(client, part, local)) {
+				session.remove(part);
+				this.checkpoints.remove(key);
+				throw new IOException("the uploaded " + part + " doesn't match " + local.getAbsolutePath());
+			}
+			session.rename(part, remotePath);
+			this.checkpoints.remove(key);
+			return null;
+		}));
+	}
+
+	void download(String remotePath, File local) throws IOException {
+		var key = this.name + ":get:" + remotePath;
+		var part = new File(local.getAbsolutePath() + PART_SUFFIX);
+		this.retry("download " + remotePath + " to " + local.getName(), () -> this.template.execute(session -> {
+			var client = (FTPClient) session.getClientInstance();
+			var files = session.list(remotePath);
+			Assert.state(files != null && files.length == 1 && files[0].isFile(), remotePath + " must be a single file");
+			var remote = files[0];
+			var fingerprint = remote.getSize() + ":" + (remote.getTimestamp() == null ? 0 : remote.getTimestamp().getTimeInMillis());
+			var confirmed = this.checkpoints.offset(key, fingerprint);
+			try (var channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				// anything after the last checkpoint might not have reached the disk, so it is fetched again
+				var start = confirmed < 0 ? 0 : Math.min(confirmed, channel.size());
+				channel.truncate(start);
+				this.checkpoints.record(key, fingerprint, start);
+				client.setRestartOffset(start);
+				var in = client.retrieveFileStream(remotePath);
+				Assert.state(in != null, "could not read " + remotePath + " from " + start + ": " + client.getReplyString());
+				try (in) {
+					this.copy(in, channel, start, offset -> {
+						channel.force(false);
+						this.checkpoints.record(key, fingerprint, offset);
+					});
+				}
+				Assert.state(client.completePendingCommand(), "the server didn't finish sending " + remotePath + ": " + client.getReplyString());
+				channel.force(false);
+			}
+			catch (IOException e) {
+				session.dirty();
+				throw e;
+			}
+			if (!this.verify(client, remotePath, part)) {
+				Files.delete(part.toPath());
+				this.checkpoints.remove(key);
+				throw new IOException("the downloaded " + part.getAbsolutePath() + " doesn't match " + remotePath);
+			}
+			Files.move(part.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			this.checkpoints.remove(key);
+			return null;
+		}));
+	}
+
+	/**
+		* @return every byte sent or received so far, including those sent again after a failure
+		*/
+	long getBytesTransferred() {
+		return this.transferred.sum();
+	}
+
+	private void retry(String description, Runnable transfer) throws IOException {
+		for (var attempt = 1; ; attempt++) {
+			try {
+				transfer.run();
+				return;
+			}
+			catch (MessagingException | IllegalStateException e) {
+				var cause = NestedExceptionUtils.getMostSpecificCause(e);
+				if (attempt == this.attempts) {
+					throw cause instanceof IOException ? (IOException) cause : new IOException("could not " + description, e);
+				}
+				log.warn("attempt " + attempt + " to " + description + " failed, resuming: " + cause.getMessage());
+			}
+			try {
+				Thread.sleep(this.backoff.toMillis() * attempt);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while waiting to " + description, e);
+			}
+		}
+	}
+
+	private void copy(FileChannel channel, OutputStream out, long position, Checkpoint checkpoint) throws IOException {
+		var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		var lastCheckpoint = position;
+		try (out) {
+			while (channel.read(buffer.clear()) != -1) {
+				out.write(buffer.array(), 0, buffer.position());
+				position += buffer.position();
+				this.transferred.add(buffer.position());
+				if (position - lastCheckpoint >= this.checkpointInterval) {
+					checkpoint.reached(position);
+					lastCheckpoint = position;
+				}
+			}
+		}
+	}
+
+	private void copy(InputStream in, FileChannel channel, long position, Checkpoint checkpoint) throws IOException {
+		var bytes = new byte[BUFFER_SIZE];
+		var lastCheckpoint = position;
+		int read;
+		while ((read = in.read(bytes)) != -1) {
+			var buffer = ByteBuffer.wrap(bytes, 0, read);
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			this.transferred.add(read);
+			if (position - lastCheckpoint >= this.checkpointInterval) {
+				checkpoint.reached(position);
+				lastCheckpoint = position;
+			}
+		}
+	}
+
+	/**
+		* @return whether the remote file has the same size and, if the server can tell, the same checksum as the local one
+		*/
+	private boolean verify(FTPClient client, String remotePath, File local) throws IOException {
+		var remoteSize = FtpCommands.size(client, remotePath);
+		if (remoteSize != local.length()) {
+			log.warn("expected " + local.length() + " bytes for " + remotePath + " but the server has " + remoteSize);
+			return false;
+		}
+		var checksum = FtpCommands.md5(client, remotePath);
+		if (checksum == null) {
+			log.debug("the server can't checksum {}, so only its size was checked", remotePath);
+			return true;
+		}
+		try (var in = new FileInputStream(local)) {
+			return DigestUtils.md5DigestAsHex(in).equalsIgnoreCase(checksum);
+		}
+	}
+
+	private interface Checkpoint {
+
+		void reached(long offset) throws IOException;
+	}
+}
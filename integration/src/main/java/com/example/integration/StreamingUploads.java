@@ -0,0 +1,121 @@
+package com.example.integration;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.integration.ftp.session.FtpRemoteFileTemplate;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+	* Writes an upload straight from the caller's stream (usually an HTTP request body) to a tenant's FTP server, so
+	* nothing is staged on the gateway's disk. The body is pumped into a {@link PipedInputStream pipe} with a fixed-size
+	* buffer that the FTP session drains, so reading the body overlaps with writing to the server and the memory used
+	* per upload is the same whatever its size. The file is written under a temporary name and only renamed once it is
+	* complete, so nobody downloads half an upload.
+	* <p>
+	* Each upload takes one of the {@code pumps} threads for as long as it lasts, so their number bounds how many uploads
+	* stream at once, and an upload that finds them all busy is turned away before anything is written.
+	*/
+@Log4j2
+class StreamingUploads {
+
+	static final String TEMPORARY_SUFFIX = ".writing";
+
+	private final TenantSessionFactories tenantSessionFactories;
+	private final AsyncTaskExecutor pumps;
+	private final int bufferSize;
+
+	StreamingUploads(TenantSessionFactories tenantSessionFactories, AsyncTaskExecutor pumps, int bufferSize) {
+		Assert.isTrue(bufferSize > 0, "the buffer size must be positive");
+		this.tenantSessionFactories = tenantSessionFactories;
+		this.pumps = pumps;
+		this.bufferSize = bufferSize;
+	}
+
+	boolean supports(String tenant) {
+		return this.tenantSessionFactories.get(tenant) != null;
+	}
+
+	/**
+		* @return the number of bytes written to {@code remotePath}
+		* @throws TaskRejectedException if as many uploads as there are pumps are already streaming
+		*/
+	long upload(String tenant, String remotePath, InputStream body) throws IOException {
+		var sessionFactory = this.tenantSessionFactories.get(tenant);
+		Assert.notNull(sessionFactory, "there is no tenant called " + tenant);
+		var template = new FtpRemoteFileTemplate(sessionFactory);
+		var temporaryPath = remotePath + TEMPORARY_SUFFIX;
+		var start = System.nanoTime();
+		var in = new PipedInputStream(this.bufferSize);
+		var out = new PipedOutputStream(in);
+		var pumped = new AtomicLong();
+		Future<?> pump = this.pumps.submit(() -> {
+			try (out) {
+				var buffer = new byte[this.bufferSize];
+				int read;
+				while ((read = body.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+					// wakes the reader now rather than when its next one second poll of the pipe comes round
+					out.flush();
+					pumped.addAndGet(read);
+				}
+			}
+			return null;
+		});
+		try (in) {
+			template.execute(session -> {
+				try {
+					session.write(in, temporaryPath);
+					this.await(pump);
+					session.rename(temporaryPath, remotePath);
+				}
+				catch (IOException | RuntimeException e) {
+					pump.cancel(true);
+					try {
+						session.remove(temporaryPath);
+					}
+					catch (Exception cleanup) {
+						log.warn("could not remove the partial upload " + temporaryPath + ": " + cleanup.getMessage());
+					}
+					throw e;
+				}
+				return null;
+			});
+		}
+		catch (MessagingException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+		finally {
+			pump.cancel(true);
+		}
+		var bytes = pumped.get();
+		log.debug("streamed {} bytes to {} for {} in {}ms", bytes, remotePath, tenant, (System.nanoTime() - start) / 1_000_000);
+		return bytes;
+	}
+
+	private void await(Future<?> pump) throws IOException {
+		try {
+			pump.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while reading the upload", e);
+		}
+		catch (ExecutionException e) {
+			var cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		}
+	}
+}
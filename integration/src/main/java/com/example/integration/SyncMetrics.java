@@ -0,0 +1,38 @@
+package com.example.integration;
+
+import lombok.Getter;
+import org.springframework.integration.aop.AbstractMessageSourceAdvice;
+import org.springframework.integration.core.MessageSource;
+import org.springframework.messaging.Message;
+
+/**
+	* Per-poll statistics for the incremental inbound synchronization. As a poller advice it marks the start of each poll,
+	* so the time until the listing reaches the {@link RemoteFileIndexFilter} is the time it took to list the directory.
+	*/
+@Getter
+class SyncMetrics extends AbstractMessageSourceAdvice {
+
+	private volatile long pollStarted;
+	private volatile long listMillis;
+	private volatile long listed;
+	private volatile long delta;
+	private volatile long indexSize;
+
+	@Override
+	public boolean beforeReceive(MessageSource<?> source) {
+		this.pollStarted = System.nanoTime();
+		return true;
+	}
+
+	@Override
+	public Message<?> afterReceive(Message<?> result, MessageSource<?> source) {
+		return result;
+	}
+
+	void listed(long listed, long delta, long indexSize) {
+		this.listMillis = (System.nanoTime() - this.pollStarted) / 1_000_000;
+		this.listed = listed;
+		this.delta = delta;
+		this.indexSize = indexSize;
+	}
+}
@@ -0,0 +1,128 @@
+package com.example.integration;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.net.ftp.FTPFile;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.file.remote.session.CachingSessionFactory;
+import org.springframework.integration.file.remote.session.Session;
+import org.springframework.integration.file.remote.session.SessionFactory;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+	* The {@link SessionFactory session factories} for each tenant, keyed by bean name. In pooled mode each tenant
+	* keeps a {@link CachingSessionFactory pool} of logged-in sessions that are checked with a {@code NOOP} when borrowed,
+	* so that an upload doesn't pay for a new control connection and login every time.
+	*/
+@Log4j2
+class TenantSessionFactories implements DisposableBean {
+
+	private final Map<String, SessionFactory<FTPFile>> factories = new HashMap<>();
+	private final Map<String, Pool> pools = new HashMap<>();
+	private final Duration idleTimeout;
+
+	TenantSessionFactories(Map<String, ? extends SessionFactory<FTPFile>> targets) {
+		this.idleTimeout = Duration.ZERO;
+		this.factories.putAll(targets);
+	}
+
+	TenantSessionFactories(Map<String, ? extends SessionFactory<FTPFile>> targets, int poolSize, Duration waitTimeout, Duration idleTimeout) {
+		Assert.isTrue(poolSize > 0, "the pool size must be positive");
+		this.idleTimeout = idleTimeout;
+		targets.forEach((tenant, target) -> {
+			var cache = new CachingSessionFactory<>(target, poolSize);
+			cache.setSessionWaitTimeout(waitTimeout.toMillis());
+			cache.setTestSession(true);
+			var pool = new Pool(target, cache);
+			this.pools.put(tenant, pool);
+			this.factories.put(tenant, pool);
+		});
+	}
+
+	SessionFactory<FTPFile> get(Object tenant) {
+		return this.factories.get(tenant);
+	}
+
+	Set<String> tenants() {
+		return Collections.unmodifiableSet(this.factories.keySet());
+	}
+
+	boolean isPooled() {
+		return !this.pools.isEmpty();
+	}
+
+	/**
+		* @return the pool kept for the given session factory, whichever tenant it's for, or {@code null} if it isn't pooled
+		* here
+		*/
+	SessionFactory<FTPFile> poolOf(SessionFactory<FTPFile> target) {
+		return this.pools.values().stream()
+			.filter(pool -> pool.target == target)
+			.findFirst()
+			.orElse(null);
+	}
+
+	/**
+		* Opens up to {@code sessions} sessions for every tenant and hands them back to the pool.
+		*/
+	void prewarm(int sessions) {
+		this.pools.forEach((tenant, pool) -> {
+			var opened = new ArrayList<Session<FTPFile>>();
+			try {
+				for (var i = 0; i < sessions; i++) {
+					opened.add(pool.getSession());
+				}
+			}
+			catch (Exception e) {
+				log.warn("could not pre-warm the sessions for " + tenant + ": " + e.getMessage());
+			}
+			finally {
+				opened.forEach(Session::close);
+			}
+			log.info("pre-warmed " + opened.size() + " session(s) for " + tenant);
+		});
+	}
+
+	/**
+		* Closes the idle sessions of every tenant that hasn't borrowed one within the idle timeout.
+		*/
+	void evictIdle() {
+		var now = System.nanoTime();
+		this.pools.forEach((tenant, pool) -> {
+			if (pool.lastBorrowed != 0 && now - pool.lastBorrowed > this.idleTimeout.toNanos()) {
+				pool.cache.resetCache();
+				pool.lastBorrowed = 0;
+				log.debug("evicted the idle sessions for " + tenant);
+			}
+		});
+	}
+
+	@Override
+	public void destroy() {
+		this.pools.values().forEach(pool -> pool.cache.destroy());
+	}
+
+	private static class Pool implements SessionFactory<FTPFile> {
+
+		private final SessionFactory<? extends FTPFile> target;
+		private final CachingSessionFactory<FTPFile> cache;
+		private volatile long lastBorrowed;
+
+		Pool(SessionFactory<? extends FTPFile> target, CachingSessionFactory<FTPFile> cache) {
+			this.target = target;
+			this.cache = cache;
+		}
+
+		@Override
+		public Session<FTPFile> getSession() {
+			this.lastBorrowed = System.nanoTime();
+			return this.cache.getSession();
+		}
+	}
+}
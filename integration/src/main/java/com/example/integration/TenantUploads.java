@@ -0,0 +1,117 @@
+package com.example.integration;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.integration.channel.ExecutorChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+	* Runs uploads off the calling thread. Each tenant gets its own {@link ExecutorChannel} backed by a bounded queue,
+	* so a busy tenant can't hold up the others and a full queue is reported to the caller instead of growing forever.
+	*/
+@Log4j2
+class TenantUploads implements DisposableBean {
+
+	static final String TRANSFER_ID_HEADER = "transferId";
+
+	private final Map<String, ThreadPoolTaskExecutor> executors = new HashMap<>();
+	private final Map<String, ExecutorChannel> channels = new HashMap<>();
+	private final Map<String, Counter> rejected = new HashMap<>();
+	private final Map<String, Transfer> transfers;
+
+	TenantUploads(Collection<String> tenants, MessageChannel target, int concurrency, int queueCapacity, int retainedTransfers, MeterRegistry registry) {
+		this.transfers = Collections.synchronizedMap(new LinkedHashMap<>() {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Transfer> eldest) {
+				return size() > retainedTransfers;
+			}
+		});
+		for (var tenant : tenants) {
+			var executor = new ThreadPoolTaskExecutor();
+			executor.setCorePoolSize(concurrency);
+			executor.setMaxPoolSize(concurrency);
+			executor.setQueueCapacity(queueCapacity);
+			executor.setThreadNamePrefix(tenant + "-upload-");
+			executor.initialize();
+			var channel = new ExecutorChannel(executor);
+			channel.subscribe(message -> this.deliver(target, message));
+			this.executors.put(tenant, executor);
+			this.channels.put(tenant, channel);
+			this.rejected.put(tenant, Counter.builder("ftp.gateway.uploads.rejected").tag("tenant", tenant).register(registry));
+			Gauge.builder("ftp.gateway.uploads.queued", executor, e -> e.getThreadPoolExecutor().getQueue().size()).tag("tenant", tenant).register(registry);
+			Gauge.builder("ftp.gateway.uploads.active", executor, ThreadPoolTaskExecutor::getActiveCount).tag("tenant", tenant).register(registry);
+		}
+	}
+
+	/**
+		* @return the queued transfer, or nothing if the tenant's queue is full
+		*/
+	Optional<Transfer> submit(String tenant, Message<?> message) {
+		var channel = this.channels.get(tenant);
+		Assert.notNull(channel, "there is no tenant called " + tenant);
+		var transfer = new Transfer(UUID.randomUUID().toString(), tenant, String.valueOf(message.getPayload()));
+		this.transfers.put(transfer.getId(), transfer);
+		try {
+			channel.send(MessageBuilder.fromMessage(message).setHeader(TRANSFER_ID_HEADER, transfer.getId()).build());
+			return Optional.of(transfer);
+		}
+		catch (MessagingException e) {
+			if (e.getCause() instanceof TaskRejectedException) {
+				this.transfers.remove(transfer.getId());
+				this.rejected.get(tenant).increment();
+				return Optional.empty();
+			}
+			throw e;
+		}
+	}
+
+	boolean supports(String tenant) {
+		return this.channels.containsKey(tenant);
+	}
+
+	Optional<Transfer> find(String id) {
+		return Optional.ofNullable(this.transfers.get(id));
+	}
+
+	private void deliver(MessageChannel target, Message<?> message) {
+		var transfer = this.transfers.get(message.getHeaders().get(TRANSFER_ID_HEADER, String.class));
+		if (transfer != null) {
+			transfer.running();
+		}
+		try {
+			target.send(message);
+			if (transfer != null) {
+				transfer.completed();
+			}
+		}
+		catch (Exception e) {
+			log.error("could not upload " + message.getPayload(), e);
+			if (transfer != null) {
+				transfer.failed(e);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.executors.values().forEach(ThreadPoolTaskExecutor::shutdown);
+	}
+}
@@ -0,0 +1,36 @@
+package com.example.integration;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.NestedExceptionUtils;
+
+/**
+	* The status of one asynchronous upload, as reported by the {@code /transfers/{id}} endpoint.
+	*/
+@Getter
+@RequiredArgsConstructor
+class Transfer {
+
+	enum State {
+		QUEUED, RUNNING, COMPLETED, FAILED
+	}
+
+	private final String id;
+	private final String tenant;
+	private final String file;
+	private volatile State state = State.QUEUED;
+	private volatile String error;
+
+	void running() {
+		this.state = State.RUNNING;
+	}
+
+	void completed() {
+		this.state = State.COMPLETED;
+	}
+
+	void failed(Throwable throwable) {
+		this.error = NestedExceptionUtils.getMostSpecificCause(throwable).getMessage();
+		this.state = State.FAILED;
+	}
+}
@@ -0,0 +1,55 @@
+package com.example.integration;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+import java.io.File;
+
+/**
+	* The last confirmed offset of every unfinished transfer, kept in an H2 {@link MVStore} on disk so that a transfer
+	* can pick up where it stopped even after a restart. Each checkpoint carries a fingerprint of the source (its size
+	* and modification time), and a checkpoint whose source has since changed is ignored.
+	*/
+class TransferCheckpoints implements DisposableBean {
+
+	private final MVStore store;
+	private final MVMap<String, String> checkpoints;
+
+	TransferCheckpoints(File file) {
+		Assert.isTrue(file.getParentFile().exists() || file.getParentFile().mkdirs(), "the directory for the checkpoints must exist");
+		this.store = new MVStore.Builder()
+			.fileName(file.getAbsolutePath())
+			.open();
+		this.checkpoints = this.store.openMap("transfer-checkpoints");
+	}
+
+	/**
+		* @return the last confirmed offset, or {@code -1} if there is none for this version of the source
+		*/
+	long offset(String key, String fingerprint) {
+		var checkpoint = this.checkpoints.get(key);
+		if (checkpoint == null) {
+			return -1;
+		}
+		var separator = checkpoint.lastIndexOf('@');
+		return checkpoint.substring(0, separator).equals(fingerprint) ? Long.parseLong(checkpoint.substring(separator + 1)) : -1;
+	}
+
+	void record(String key, String fingerprint, long offset) {
+		this.checkpoints.put(key, fingerprint + "@" + offset);
+		this.store.commit();
+	}
+
+	void remove(String key) {
+		if (this.checkpoints.remove(key) != null) {
+			this.store.commit();
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.store.close();
+	}
+}
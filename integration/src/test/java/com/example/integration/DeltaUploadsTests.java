@@ -0,0 +1,91 @@
+package com.example.integration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+class DeltaUploadsTests {
+
+	private final EmbeddedFtpServer server = EmbeddedFtpServer.start("jlong");
+	private final File local = Files.createTempFile("access", ".log").toFile();
+
+	DeltaUploadsTests() throws Exception {
+	}
+
+	@AfterEach
+	void stop() {
+		this.server.close();
+	}
+
+	@Test
+	void sendsOnlyWhatWasAppended() throws Exception {
+		var uploads = new DeltaUploads(this.server.sessionFactory(), DeltaUploads.Compression.NONE, true, 1024);
+		this.append(0, 1000);
+		uploads.upload(this.local, "access.log");
+		var first = uploads.getBytesOnWire();
+		Assertions.assertEquals(this.local.length(), first);
+		this.append(1000, 1010);
+		uploads.upload(this.local, "access.log");
+		var appended = this.local.length() - first;
+		Assertions.assertEquals(appended + 1024, uploads.getBytesOnWire() - first, "only the tail and the new lines are sent");
+		Assertions.assertArrayEquals(Files.readAllBytes(this.local.toPath()), Files.readAllBytes(this.remote("access.log").toPath()));
+	}
+
+	@Test
+	void sendsTheWholeFileWhenItChangedBeforeTheTail() throws Exception {
+		var uploads = new DeltaUploads(this.server.sessionFactory(), DeltaUploads.Compression.NONE, true, 1024);
+		this.append(0, 1000);
+		uploads.upload(this.local, "access.log");
+		var content = Files.readString(this.local.toPath()).replaceFirst("GET /0 ", "GET /X ");
+		Files.writeString(this.local.toPath(), content);
+		this.append(1000, 1010);
+		uploads.upload(this.local, "access.log");
+		Assertions.assertArrayEquals(Files.readAllBytes(this.local.toPath()), Files.readAllBytes(this.remote("access.log").toPath()));
+	}
+
+	@Test
+	void sendsTheWholeFileWhenTheServerCannotCheckIt() throws Exception {
+		try (var server = EmbeddedFtpServer.withoutCommands("jlong", "MD5")) {
+			var uploads = new DeltaUploads(server.sessionFactory(), DeltaUploads.Compression.NONE, true, 1024);
+			this.append(0, 1000);
+			uploads.upload(this.local, "access.log");
+			var content = Files.readString(this.local.toPath()).replaceFirst("GET /0 ", "GET /X ");
+			Files.writeString(this.local.toPath(), content);
+			this.append(1000, 1010);
+			var first = uploads.getBytesOnWire();
+			uploads.upload(this.local, "access.log");
+			Assertions.assertEquals(1024 + this.local.length(), uploads.getBytesOnWire() - first, "the tail and then the whole file");
+			Assertions.assertArrayEquals(Files.readAllBytes(this.local.toPath()), Files.readAllBytes(new File(server.getHome(), "access.log").toPath()));
+		}
+	}
+
+	@Test
+	void compressesAsItSends() throws Exception {
+		var uploads = new DeltaUploads(this.server.sessionFactory(), DeltaUploads.Compression.GZIP, false, 1024);
+		this.append(0, 1000);
+		Assertions.assertEquals("access.log.gz", uploads.upload(this.local, "access.log"));
+		Assertions.assertTrue(uploads.getBytesOnWire() < this.local.length() / 4, "sent " + uploads.getBytesOnWire() + " bytes");
+		try (var in = new GZIPInputStream(new FileInputStream(this.remote("access.log.gz")))) {
+			Assertions.assertArrayEquals(Files.readAllBytes(this.local.toPath()), in.readAllBytes());
+		}
+	}
+
+	private void append(int from, int to) throws Exception {
+		var lines = new StringBuilder();
+		for (var i = from; i < to; i++) {
+			lines.append("10.0.0.").append(i % 256).append(" - - [17/Oct/2026:10:00:00 +0000] \"GET /").append(i).append(" HTTP/1.1\" 200 512\n");
+		}
+		Files.writeString(this.local.toPath(), lines, StandardCharsets.US_ASCII, StandardOpenOption.APPEND);
+	}
+
+	private File remote(String name) {
+		return new File(this.server.getHome(), name);
+	}
+}
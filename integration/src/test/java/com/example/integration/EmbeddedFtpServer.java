@@ -0,0 +1,108 @@
+package com.example.integration;
+
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.command.CommandFactoryFactory;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.ClearTextPasswordEncryptor;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.springframework.integration.ftp.session.DefaultFtpSessionFactory;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+	* An in-process Apache Mina FTP server with a single user whose home is a fresh temporary directory.
+	*/
+class EmbeddedFtpServer implements AutoCloseable {
+
+	private final FtpServer server;
+	private final File home;
+	private final int port;
+	private final String username;
+
+	private EmbeddedFtpServer(FtpServer server, File home, int port, String username) {
+		this.server = server;
+		this.home = home;
+		this.port = port;
+		this.username = username;
+	}
+
+	static EmbeddedFtpServer start(String username) throws Exception {
+		return start(username, new CommandFactoryFactory());
+	}
+
+	/**
+		* Starts a server that answers the given commands with {@code 502}, like one that doesn't implement them.
+		*/
+	static EmbeddedFtpServer withoutCommands(String username, String... commands) throws Exception {
+		var commandFactory = new CommandFactoryFactory();
+		for (var command : commands) {
+			commandFactory.addCommand(command, (session, context, request) -> {
+				session.resetState();
+				session.write(new DefaultFtpReply(FtpReply.REPLY_502_COMMAND_NOT_IMPLEMENTED, "Command " + command + " not implemented."));
+			});
+		}
+		return start(username, commandFactory);
+	}
+
+	private static EmbeddedFtpServer start(String username, CommandFactoryFactory commandFactory) throws Exception {
+		var home = Files.createTempDirectory("ftp-" + username).toFile();
+		var users = Files.createTempFile("ftp-users-" + username, ".properties").toFile();
+		var userManagerFactory = new PropertiesUserManagerFactory();
+		userManagerFactory.setFile(users);
+		userManagerFactory.setPasswordEncryptor(new ClearTextPasswordEncryptor());
+		var userManager = userManagerFactory.createUserManager();
+		var user = new BaseUser();
+		user.setName(username);
+		user.setPassword(username);
+		user.setHomeDirectory(home.getAbsolutePath());
+		user.setAuthorities(List.of(new WritePermission()));
+		userManager.save(user);
+		int port;
+		try (var socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		var listenerFactory = new ListenerFactory();
+		listenerFactory.setPort(port);
+		var serverFactory = new FtpServerFactory();
+		serverFactory.setUserManager(userManager);
+		serverFactory.setCommandFactory(commandFactory.createCommandFactory());
+		serverFactory.addListener("default", listenerFactory.createListener());
+		var server = serverFactory.createServer();
+		server.start();
+		return new EmbeddedFtpServer(server, home, port, username);
+	}
+
+	DefaultFtpSessionFactory sessionFactory() {
+		var sessionFactory = new DefaultFtpSessionFactory();
+		sessionFactory.setUsername(this.username);
+		sessionFactory.setPassword(this.username);
+		sessionFactory.setHost("localhost");
+		sessionFactory.setPort(this.port);
+		return sessionFactory;
+	}
+
+	File getHome() {
+		return this.home;
+	}
+
+	int getPort() {
+		return this.port;
+	}
+
+	String getUsername() {
+		return this.username;
+	}
+
+	@Override
+	public void close() {
+		this.server.stop();
+	}
+}
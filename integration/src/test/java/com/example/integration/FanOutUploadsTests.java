@@ -0,0 +1,86 @@
+package com.example.integration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.integration.ftp.session.DefaultFtpSessionFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.SocketUtils;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+class FanOutUploadsTests {
+
+	private final EmbeddedFtpServer one = EmbeddedFtpServer.start("one");
+	private final EmbeddedFtpServer two = EmbeddedFtpServer.start("two");
+	private final TenantSessionFactories tenantSessionFactories = new TenantSessionFactories(Map.of(
+		"one", this.one.sessionFactory(),
+		"two", this.two.sessionFactory(),
+		"down", unreachable()));
+	private final ThreadPoolTaskExecutor deliveries = new ThreadPoolTaskExecutor();
+	private final FanOutUploads uploads = new FanOutUploads(this.tenantSessionFactories, this.deliveries, 2, Duration.ofMillis(10), Duration.ofSeconds(30));
+
+	FanOutUploadsTests() throws Exception {
+		this.deliveries.setCorePoolSize(3);
+		this.deliveries.setMaxPoolSize(3);
+		this.deliveries.setQueueCapacity(0);
+		this.deliveries.initialize();
+	}
+
+	@AfterEach
+	void stop() {
+		this.deliveries.shutdown();
+		this.one.close();
+		this.two.close();
+	}
+
+	@Test
+	void deliversTheSameFileToEveryTenant() throws Exception {
+		var content = new byte[1024 * 1024 + 3];
+		new Random(42).nextBytes(content);
+		var source = Files.createTempFile("fan-out", ".bin").toFile();
+		Files.write(source.toPath(), content);
+		var results = this.uploads.upload(source, "fan-out.bin", List.of("one", "two", "down", "missing"));
+		Assertions.assertEquals(List.of(FanOutUploads.Status.SUCCEEDED, FanOutUploads.Status.SUCCEEDED, FanOutUploads.Status.FAILED, FanOutUploads.Status.FAILED),
+			results.stream().map(FanOutUploads.Result::getStatus).collect(Collectors.toList()));
+		Assertions.assertEquals(2, results.get(2).getAttempts());
+		Assertions.assertArrayEquals(content, Files.readAllBytes(new File(this.one.getHome(), "fan-out.bin").toPath()));
+		Assertions.assertArrayEquals(content, Files.readAllBytes(new File(this.two.getHome(), "fan-out.bin").toPath()));
+	}
+
+	@Test
+	void leavesNothingBehindWhenTheDeadlinePassesMidTransfer() throws Exception {
+		var source = Files.createTempFile("fan-out", ".bin").toFile();
+		try (var file = new RandomAccessFile(source, "rw")) {
+			file.setLength(1024L * 1024 * 1024);
+		}
+		var uploads = new FanOutUploads(this.tenantSessionFactories, this.deliveries, 1, Duration.ofMillis(10), Duration.ofMillis(500));
+		var results = uploads.upload(source, "late.bin", List.of("one"));
+		Assertions.assertNotEquals(FanOutUploads.Status.SUCCEEDED, results.get(0).getStatus());
+		Assertions.assertFalse(new File(this.one.getHome(), "late.bin").exists(), "no partial file under the real name");
+		Assertions.assertFalse(new File(this.one.getHome(), "late.bin" + FanOutUploads.TEMPORARY_SUFFIX).exists());
+		source.delete();
+	}
+
+	@Test
+	void turnsAFanOutAwayWhenThereAreTooFewThreads() throws Exception {
+		var source = Files.createTempFile("fan-out", ".bin").toFile();
+		Files.writeString(source.toPath(), "content");
+		Assertions.assertThrows(TaskRejectedException.class, () -> this.uploads.upload(source, "crowded.bin", List.of("one", "two", "down", "one")));
+	}
+
+	private static DefaultFtpSessionFactory unreachable() {
+		var sessionFactory = new DefaultFtpSessionFactory();
+		sessionFactory.setHost("localhost");
+		sessionFactory.setPort(SocketUtils.findAvailableTcpPort());
+		return sessionFactory;
+	}
+}
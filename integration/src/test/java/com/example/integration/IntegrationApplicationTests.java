@@ -3,7 +3,7 @@ package com.example.integration;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "ftp.state-directory=target/test-state")
 class IntegrationApplicationTests {
 
 	@Test
@@ -0,0 +1,61 @@
+package com.example.integration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+class ParallelFtpTransfersTests {
+
+	private final EmbeddedFtpServer server = EmbeddedFtpServer.start("jlong");
+	private final ParallelFtpTransfers transfers = ParallelFtpTransfers.pooled(this.server.sessionFactory(), 4, 1024);
+
+	ParallelFtpTransfersTests() throws Exception {
+	}
+
+	@AfterEach
+	void stop() {
+		this.transfers.destroy();
+		this.server.close();
+	}
+
+	@Test
+	void downloadsALargeFileInRanges() throws Exception {
+		var content = new byte[5 * 1024 * 1024 + 17];
+		new Random(42).nextBytes(content);
+		Files.write(new File(this.server.getHome(), "big.bin").toPath(), content);
+		var local = Files.createTempFile("big", ".bin").toFile();
+		this.transfers.download("big.bin", local);
+		Assertions.assertArrayEquals(content, Files.readAllBytes(local.toPath()));
+	}
+
+	@Test
+	void downloadsASmallFileInOneGo() throws Exception {
+		Files.writeString(new File(this.server.getHome(), "hello.txt").toPath(), "hello");
+		var local = Files.createTempFile("hello", ".txt").toFile();
+		this.transfers.download("hello.txt", local);
+		Assertions.assertEquals("hello", Files.readString(local.toPath()));
+	}
+
+	@Test
+	void downloadsADirectoryTree() throws Exception {
+		var remote = new File(this.server.getHome(), "tree");
+		for (var i = 0; i < 5; i++) {
+			var directory = new File(remote, "d" + i);
+			Assertions.assertTrue(directory.mkdirs());
+			for (var j = 0; j < 4; j++) {
+				Files.writeString(new File(directory, "f" + j + ".txt").toPath(), i + "/" + j);
+			}
+		}
+		var local = Files.createTempDirectory("tree").toFile();
+		this.transfers.downloadTree("/tree", local);
+		for (var i = 0; i < 5; i++) {
+			for (var j = 0; j < 4; j++) {
+				Assertions.assertEquals(i + "/" + j, Files.readString(new File(local, "d" + i + "/f" + j + ".txt").toPath()));
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.example.integration;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+class ParallelTreeWalkerTests {
+
+	private final EmbeddedFtpServer server = EmbeddedFtpServer.start("jlong");
+	private final TenantSessionFactories tenantSessionFactories = new TenantSessionFactories(Map.of("jlong", this.server.sessionFactory()), 4, Duration.ofSeconds(10), Duration.ofMinutes(1));
+	private final ParallelTreeWalker walker = new ParallelTreeWalker(this.tenantSessionFactories, 4, 8);
+
+	ParallelTreeWalkerTests() throws Exception {
+		for (var a = 0; a < 5; a++) {
+			for (var b = 0; b < 4; b++) {
+				var directory = this.server.getHome().toPath().resolve("a" + a).resolve("b" + b);
+				Files.createDirectories(directory);
+				for (var c = 0; c < 10; c++) {
+					Files.writeString(directory.resolve("file" + c + ".txt"), "" + c);
+				}
+			}
+		}
+	}
+
+	@AfterEach
+	void stop() {
+		this.walker.destroy();
+		this.tenantSessionFactories.destroy();
+		this.server.close();
+	}
+
+	@Test
+	void findsEveryFileAndDirectory() throws Exception {
+		var expected = Files.walk(this.server.getHome().toPath())
+			.filter(path -> !path.equals(this.server.getHome().toPath()))
+			.map(path -> this.server.getHome().toPath().relativize(path).toString().replace('\\', '/'))
+			.collect(Collectors.toSet());
+		var found = new HashSet<String>();
+		var directories = 0;
+		try (var walk = this.walker.walk("jlong", "")) {
+			while (walk.hasNext()) {
+				var file = walk.next();
+				Assertions.assertTrue(found.add(file.getName()), file.getName() + " was found twice");
+				directories += file.isDirectory() ? 1 : 0;
+			}
+		}
+		Assertions.assertEquals(expected, found);
+		Assertions.assertEquals(25, directories);
+		Assertions.assertEquals(225, found.size());
+	}
+
+	@Test
+	void stopsWhenClosed() throws Exception {
+		try (var walk = this.walker.walk("jlong", "a0")) {
+			FTPFile first = walk.next();
+			Assertions.assertTrue(first.getName().startsWith("b"));
+			walk.close();
+			Assertions.assertFalse(walk.hasNext());
+		}
+	}
+
+	@Test
+	void walksOnWhileAnotherWalkIsNotRead() {
+		try (var unread = this.walker.walk("jlong", "")) {
+			Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+				var found = 0;
+				try (var walk = this.walker.walk("jlong", "")) {
+					while (walk.hasNext()) {
+						walk.next();
+						found++;
+					}
+				}
+				Assertions.assertEquals(225, found);
+			});
+		}
+	}
+
+	@Test
+	void handsOverADirectoryLargerThanTheLimitInOnePiece() throws Exception {
+		var large = this.server.getHome().toPath().resolve("a0").resolve("large");
+		Files.createDirectories(large.resolve("last"));
+		Files.writeString(large.resolve("last").resolve("file.txt"), "last");
+		for (var i = 0; i < 20_000; i++) {
+			Files.createFile(large.resolve("file" + i + ".txt"));
+		}
+		var found = new HashSet<String>();
+		try (var walk = this.walker.walk("jlong", "a0/large")) {
+			while (walk.hasNext()) {
+				Assertions.assertTrue(found.add(walk.next().getName()));
+			}
+		}
+		Assertions.assertEquals(20_002, found.size(), "20,000 files, the directory after them and its file");
+		Assertions.assertTrue(found.contains("last/file.txt"));
+	}
+
+	@Test
+	void failsForAMissingDirectory() {
+		var walk = this.walker.walk("jlong", "nowhere");
+		Assertions.assertThrows(UncheckedIOException.class, walk::hasNext);
+	}
+}
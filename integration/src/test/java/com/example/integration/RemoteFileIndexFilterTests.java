@@ -0,0 +1,69 @@
+package com.example.integration;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.List;
+
+class RemoteFileIndexFilterTests {
+
+	private final File indexFile = new File(Files.createTempDirectory("index").toFile(), "index.mv.db");
+
+	RemoteFileIndexFilterTests() throws Exception {
+	}
+
+	private static FTPFile file(String name, long size, long modified) {
+		var file = new FTPFile();
+		file.setName(name);
+		file.setType(FTPFile.FILE_TYPE);
+		file.setSize(size);
+		var timestamp = Calendar.getInstance();
+		timestamp.setTimeInMillis(modified);
+		file.setTimestamp(timestamp);
+		return file;
+	}
+
+	@Test
+	void acceptsOnlyNewOrChangedFilesAcrossRestarts() {
+		var a = file("a.txt", 1, 1000);
+		var b = file("b.txt", 2, 1000);
+		var filter = new RemoteFileIndexFilter(this.indexFile, 1, new SyncMetrics());
+		Assertions.assertEquals(List.of(a, b), filter.filterFiles(new FTPFile[]{a, b}));
+		Assertions.assertTrue(filter.filterFiles(new FTPFile[]{a, b}).isEmpty());
+		filter.destroy();
+
+		var restarted = new RemoteFileIndexFilter(this.indexFile, 1, new SyncMetrics());
+		var changed = file("b.txt", 3, 1000);
+		var c = file("c.txt", 1, 2000);
+		Assertions.assertEquals(List.of(changed, c), restarted.filterFiles(new FTPFile[]{a, changed, c}));
+		Assertions.assertEquals(3, restarted.size());
+		restarted.destroy();
+	}
+
+	@Test
+	void rollsBackFilesThatWereNotFetched() {
+		var a = file("a.txt", 1, 1000);
+		var b = file("b.txt", 2, 1000);
+		var metrics = new SyncMetrics();
+		var filter = new RemoteFileIndexFilter(this.indexFile, 1, metrics);
+		var accepted = filter.filterFiles(new FTPFile[]{a, b});
+		Assertions.assertEquals(2, metrics.getDelta());
+		filter.rollback(b, accepted);
+		Assertions.assertEquals(List.of(b), filter.filterFiles(new FTPFile[]{a, b}));
+		filter.destroy();
+	}
+
+	@Test
+	void localFilterAcceptsEachSynchronizedFileOnce() {
+		var filter = new RemoteFileIndexFilter(this.indexFile, 1, new SyncMetrics());
+		filter.filterFiles(new FTPFile[]{file("a.txt", 1, 1000)});
+		var local = new File[]{new File("a.txt"), new File("other.txt")};
+		Assertions.assertEquals(List.of(local[0]), filter.localFilter().filterFiles(local));
+		Assertions.assertTrue(filter.localFilter().filterFiles(local).isEmpty());
+		filter.destroy();
+	}
+}
@@ -0,0 +1,174 @@
+package com.example.integration;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.ftp.session.DefaultFtpSessionFactory;
+
+import javax.net.SocketFactory;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+	* Kills data connections part of the way through a transfer and checks that every transfer still completes, and
+	* that resuming sends again no more than a checkpoint's worth of bytes for each failure.
+	*/
+class ResumableTransfersTests {
+
+	private static final int SIZE = 8 * 1024 * 1024 + 5;
+	private static final int CHECKPOINT_INTERVAL = 256 * 1024;
+	private static final int FAULTS = 3;
+
+	private final EmbeddedFtpServer server = EmbeddedFtpServer.start("jlong");
+	private final FaultInjectingSocketFactory faults = new FaultInjectingSocketFactory(1536 * 1024, FAULTS);
+	private final TransferCheckpoints checkpoints = new TransferCheckpoints(Files.createTempFile("checkpoints", ".mv.db").toFile());
+	private final ResumableTransfers transfers = new ResumableTransfers("jlong", this.sessionFactory(), this.checkpoints, FAULTS + 2, Duration.ofMillis(10), CHECKPOINT_INTERVAL);
+	private final byte[] content = new byte[SIZE];
+
+	ResumableTransfersTests() throws Exception {
+		new Random(42).nextBytes(this.content);
+	}
+
+	@AfterEach
+	void stop() {
+		this.checkpoints.destroy();
+		this.server.close();
+	}
+
+	@Test
+	void resumesAnUploadAfterItsConnectionIsKilled() throws Exception {
+		var local = Files.createTempFile("upload", ".bin").toFile();
+		Files.write(local.toPath(), this.content);
+		this.transfers.upload(local, "upload.bin");
+		Assertions.assertArrayEquals(this.content, Files.readAllBytes(new File(this.server.getHome(), "upload.bin").toPath()));
+		Assertions.assertFalse(new File(this.server.getHome(), "upload.bin" + ResumableTransfers.PART_SUFFIX).exists());
+		this.assertResentAtMostACheckpointPerFault();
+	}
+
+	@Test
+	void resumesADownloadAfterItsConnectionIsKilled() throws Exception {
+		Files.write(new File(this.server.getHome(), "download.bin").toPath(), this.content);
+		var local = new File(Files.createTempDirectory("download").toFile(), "download.bin");
+		this.transfers.download("download.bin", local);
+		Assertions.assertArrayEquals(this.content, Files.readAllBytes(local.toPath()));
+		Assertions.assertFalse(new File(local.getAbsolutePath() + ResumableTransfers.PART_SUFFIX).exists());
+		this.assertResentAtMostACheckpointPerFault();
+	}
+
+	private void assertResentAtMostACheckpointPerFault() {
+		Assertions.assertEquals(0, this.faults.remaining.get(), "every fault must have been injected");
+		var resent = this.transfers.getBytesTransferred() - SIZE;
+		// starting again from zero would have sent at least FAULTS * 1.5MB again
+		Assertions.assertTrue(resent >= 0 && resent <= (long) FAULTS * CHECKPOINT_INTERVAL, "sent " + resent + " bytes again");
+	}
+
+	private DefaultFtpSessionFactory sessionFactory() {
+		var faults = this.faults;
+		var sessionFactory = new DefaultFtpSessionFactory() {
+
+			@Override
+			protected void postProcessClientBeforeConnect(FTPClient client) {
+				client.setSocketFactory(faults);
+			}
+		};
+		sessionFactory.setHost("localhost");
+		sessionFactory.setPort(this.server.getPort());
+		sessionFactory.setUsername("jlong");
+		sessionFactory.setPassword("jlong");
+		sessionFactory.setClientMode(FTPClient.PASSIVE_LOCAL_DATA_CONNECTION_MODE);
+		sessionFactory.setFileType(FTPClient.BINARY_FILE_TYPE);
+		return sessionFactory;
+	}
+
+	/**
+		* Closes any connection, control or data, once it has carried {@code killAfter} bytes, until it has done so
+		* {@code faults} times. Control connections never carry that much, so only transfers are cut short.
+		*/
+	private static class FaultInjectingSocketFactory extends SocketFactory {
+
+		private final long killAfter;
+		private final AtomicInteger remaining;
+
+		FaultInjectingSocketFactory(long killAfter, int faults) {
+			this.killAfter = killAfter;
+			this.remaining = new AtomicInteger(faults);
+		}
+
+		@Override
+		public Socket createSocket() {
+			return new Socket() {
+
+				private long carried;
+
+				@Override
+				public InputStream getInputStream() throws IOException {
+					return new FilterInputStream(super.getInputStream()) {
+
+						@Override
+						public int read(byte[] bytes, int offset, int length) throws IOException {
+							var read = super.read(bytes, offset, length);
+							carried(read);
+							return read;
+						}
+					};
+				}
+
+				@Override
+				public OutputStream getOutputStream() throws IOException {
+					return new FilterOutputStream(super.getOutputStream()) {
+
+						@Override
+						public void write(byte[] bytes, int offset, int length) throws IOException {
+							carried(length);
+							this.out.write(bytes, offset, length);
+						}
+					};
+				}
+
+				private synchronized void carried(int bytes) throws IOException {
+					this.carried += Math.max(bytes, 0);
+					if (this.carried > killAfter && remaining.getAndUpdate(n -> Math.max(n - 1, 0)) > 0) {
+						this.close();
+						throw new IOException("injected fault after " + this.carried + " bytes");
+					}
+				}
+			};
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			var socket = this.createSocket();
+			socket.connect(new InetSocketAddress(host, port));
+			return socket;
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			var socket = this.createSocket();
+			socket.connect(new InetSocketAddress(host, port));
+			return socket;
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
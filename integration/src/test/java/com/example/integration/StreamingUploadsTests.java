@@ -0,0 +1,81 @@
+package com.example.integration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+class StreamingUploadsTests {
+
+	private final EmbeddedFtpServer server = EmbeddedFtpServer.start("jlong");
+	private final ThreadPoolTaskExecutor pumps = new ThreadPoolTaskExecutor();
+	private final StreamingUploads uploads = new StreamingUploads(new TenantSessionFactories(Map.of("jlong", this.server.sessionFactory())), this.pumps, 8 * 1024);
+
+	StreamingUploadsTests() throws Exception {
+		this.pumps.setCorePoolSize(1);
+		this.pumps.setMaxPoolSize(1);
+		this.pumps.setQueueCapacity(0);
+		this.pumps.initialize();
+	}
+
+	@AfterEach
+	void stop() {
+		this.pumps.shutdown();
+		this.server.close();
+	}
+
+	@Test
+	void streamsTheBodyToTheServer() throws Exception {
+		var content = new byte[3 * 1024 * 1024 + 17];
+		new Random(42).nextBytes(content);
+		var written = this.uploads.upload("jlong", "big.bin", new ByteArrayInputStream(content));
+		Assertions.assertEquals(content.length, written);
+		Assertions.assertArrayEquals(content, Files.readAllBytes(new File(this.server.getHome(), "big.bin").toPath()));
+		Assertions.assertFalse(new File(this.server.getHome(), "big.bin" + StreamingUploads.TEMPORARY_SUFFIX).exists());
+	}
+
+	@Test
+	void leavesNothingBehindWhenTheBodyBreaks() {
+		var broken = new SequenceInputStream(new ByteArrayInputStream(new byte[100_000]), new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				throw new IOException("the client went away");
+			}
+		});
+		Assertions.assertThrows(IOException.class, () -> this.uploads.upload("jlong", "broken.bin", broken));
+		Assertions.assertFalse(new File(this.server.getHome(), "broken.bin").exists());
+		Assertions.assertFalse(new File(this.server.getHome(), "broken.bin" + StreamingUploads.TEMPORARY_SUFFIX).exists());
+	}
+
+	@Test
+	void turnsAnUploadAwayWhenEveryPumpIsBusy() throws Exception {
+		var busy = new CountDownLatch(1);
+		this.pumps.execute(() -> {
+			try {
+				busy.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		try {
+			Assertions.assertThrows(TaskRejectedException.class, () -> this.uploads.upload("jlong", "later.bin", new ByteArrayInputStream(new byte[10])));
+			Assertions.assertFalse(new File(this.server.getHome(), "later.bin" + StreamingUploads.TEMPORARY_SUFFIX).exists());
+		}
+		finally {
+			busy.countDown();
+		}
+	}
+}
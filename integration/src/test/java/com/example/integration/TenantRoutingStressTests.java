@@ -0,0 +1,132 @@
+package com.example.integration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.integration.config.EnableIntegration;
+import org.springframework.integration.ftp.session.DefaultFtpSessionFactory;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+	* Uploads to several tenants from many threads at once and checks that every file lands on its own tenant's server.
+	*/
+@ActiveProfiles("gateway")
+@SpringJUnitConfig(initializers = TenantRoutingStressTests.Servers.class)
+class TenantRoutingStressTests {
+
+	private static final List<String> TENANTS = List.of("one", "two", "three", "four");
+	private static final Map<String, EmbeddedFtpServer> SERVERS = new LinkedHashMap<>();
+	private static final int UPLOADS_PER_TENANT = 50;
+
+	@Autowired
+	private MessageChannel incoming;
+
+	@AfterAll
+	static void stopServers() {
+		SERVERS.values().forEach(EmbeddedFtpServer::close);
+	}
+
+	@Test
+	void everyUploadLandsOnItsOwnTenant() throws Exception {
+		var local = Files.createTempDirectory("uploads").toFile();
+		var uploads = new ArrayList<Callable<Object>>();
+		for (var i = 0; i < UPLOADS_PER_TENANT; i++) {
+			for (var tenant : TENANTS) {
+				var file = new File(local, tenant + "-" + i + ".txt");
+				Files.writeString(file.toPath(), tenant);
+				uploads.add(() -> this.incoming.send(MessageBuilder.withPayload(file).setHeader(GatewayConfiguration.TENANT_HEADER, tenant).build()));
+			}
+		}
+		var executor = Executors.newFixedThreadPool(16);
+		try {
+			for (Future<Object> result : executor.invokeAll(uploads)) {
+				result.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		for (var tenant : TENANTS) {
+			var files = SERVERS.get(tenant).getHome().listFiles();
+			Assertions.assertNotNull(files);
+			Assertions.assertEquals(UPLOADS_PER_TENANT, files.length, "the number of files uploaded for " + tenant);
+			for (var file : files) {
+				Assertions.assertTrue(file.getName().startsWith(tenant + "-"), file.getName() + " was uploaded to " + tenant);
+				Assertions.assertEquals(tenant, Files.readString(file.toPath()));
+			}
+		}
+	}
+
+	static class Servers implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			try {
+				for (var tenant : TENANTS) {
+					SERVERS.put(tenant, EmbeddedFtpServer.start(tenant));
+				}
+			}
+			catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+			var properties = new ArrayList<String>();
+			for (var i = 1; i <= 2; i++) {
+				var server = SERVERS.get(TENANTS.get(i - 1));
+				properties.add("ftp" + i + ".username=" + server.getUsername());
+				properties.add("ftp" + i + ".password=" + server.getUsername());
+				properties.add("ftp" + i + ".host=localhost");
+				properties.add("ftp" + i + ".port=" + server.getPort());
+			}
+			TestPropertyValues.of(properties).applyTo(context);
+			context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance());
+		}
+	}
+
+	@Configuration
+	@EnableIntegration
+	@Import(GatewayConfiguration.class)
+	static class Tenants {
+
+		@Bean
+		SimpleMeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+		@Bean
+		TransferCheckpoints transferCheckpoints() throws Exception {
+			return new TransferCheckpoints(Files.createTempFile("checkpoints", ".mv.db").toFile());
+		}
+
+		@Bean
+		DefaultFtpSessionFactory three() {
+			return SERVERS.get("three").sessionFactory();
+		}
+
+		@Bean
+		DefaultFtpSessionFactory four() {
+			return SERVERS.get("four").sessionFactory();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.example.integration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class TenantUploadsTests {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final DirectChannel target = new DirectChannel();
+	private final TenantUploads uploads = new TenantUploads(List.of("one", "two"), this.target, 1, 1, 100, new SimpleMeterRegistry());
+
+	TenantUploadsTests() {
+		this.target.subscribe(message -> {
+			try {
+				this.release.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (message.getPayload().equals("broken")) {
+				throw new IllegalStateException("boom");
+			}
+		});
+	}
+
+	@AfterEach
+	void destroy() {
+		this.uploads.destroy();
+	}
+
+	@Test
+	void rejectsWhenTheTenantQueueIsFull() throws Exception {
+		var running = this.uploads.submit("one", MessageBuilder.withPayload("one").build());
+		Assertions.assertTrue(running.isPresent());
+		awaitState(running.get(), Transfer.State.RUNNING);
+		var queued = this.uploads.submit("one", MessageBuilder.withPayload("one").build());
+		Assertions.assertTrue(queued.isPresent());
+		Assertions.assertTrue(this.uploads.submit("one", MessageBuilder.withPayload("one").build()).isEmpty());
+		Assertions.assertTrue(this.uploads.submit("two", MessageBuilder.withPayload("two").build()).isPresent(), "another tenant's queue is unaffected");
+		this.release.countDown();
+		awaitState(running.get(), Transfer.State.COMPLETED);
+		awaitState(queued.get(), Transfer.State.COMPLETED);
+		Assertions.assertSame(queued.get(), this.uploads.find(queued.get().getId()).orElseThrow());
+	}
+
+	@Test
+	void reportsFailures() throws Exception {
+		this.release.countDown();
+		var transfer = this.uploads.submit("two", MessageBuilder.withPayload("broken").build()).orElseThrow();
+		awaitState(transfer, Transfer.State.FAILED);
+		Assertions.assertEquals("boom", transfer.getError());
+	}
+
+	private static void awaitState(Transfer transfer, Transfer.State state) throws InterruptedException {
+		var deadline = System.currentTimeMillis() + 10_000;
+		while (transfer.getState() != state && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assertions.assertEquals(state, transfer.getState());
+	}
+}
@@ -0,0 +1,17 @@
+package ftp;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+	* A user's bandwidth in bytes per second, across all of their sessions and for each session. Zero means no limit.
+	*/
+@Getter
+@RequiredArgsConstructor
+class BandwidthLimits {
+
+	static final BandwidthLimits UNLIMITED = new BandwidthLimits(0, 0);
+
+	private final long userRate;
+	private final long sessionRate;
+}
@@ -0,0 +1,241 @@
+package ftp;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+	* Shapes file transfers with a hierarchy of {@link TokenBucket token buckets}: one for the whole server, one for each
+	* user (the tenant) and one for each of that user's sessions. Transfers take tokens a chunk at a time, so a bulk
+	* download shares every level fairly with interactive ones instead of draining it. A session that no level limits
+	* only counts its bytes, so that every session can be opened here and be limited as soon as its user is given limits.
+	* <p>
+	* The {@link #shares()} are reported as {@code ftp.bandwidth.share}, tagged with the user and with {@code kind} of
+	* {@code actual} or {@code configured}.
+	*/
+@Log4j2
+class BandwidthShaper implements MeterBinder {
+
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	private final TokenBucket global;
+	private final Map<String, UserBandwidth> users = new ConcurrentHashMap<>();
+	private volatile MultiGauge shareGauges;
+
+	BandwidthShaper(long globalRate) {
+		this.global = new TokenBucket(null, globalRate);
+	}
+
+	void setGlobalRate(long rate) {
+		this.global.setRate(rate);
+	}
+
+	Session open(String username, BandwidthLimits limits) {
+		var session = new Session(username);
+		// the session joins inside compute so that a concurrent close can't drop the user's bucket in between
+		this.users.compute(username, (name, existing) -> {
+			var user = existing == null ? new UserBandwidth(new TokenBucket(this.global, limits.getUserRate())) : existing;
+			user.configure(limits);
+			session.attach(user, limits.getSessionRate());
+			return user;
+		});
+		return session;
+	}
+
+	/**
+		* Applies new limits to a user's running sessions straight away.
+		*/
+	void configure(String username, BandwidthLimits limits) {
+		var user = this.users.get(username);
+		if (user != null) {
+			user.configure(limits);
+		}
+	}
+
+	Set<String> activeUsers() {
+		return Set.copyOf(this.users.keySet());
+	}
+
+	/**
+		* Compares the share of the bytes each active user transferred since the last call with the share of the
+		* bandwidth they're configured for, and reports both to the gauges. Users without a limit are counted as having an
+		* equal share.
+		*/
+	Map<String, Share> shares() {
+		var transferred = new HashMap<String, Long>();
+		this.users.forEach((name, user) -> transferred.put(name, user.takeTransferred()));
+		var totalBytes = transferred.values().stream().mapToLong(Long::longValue).sum();
+		var unlimited = this.users.values().stream().anyMatch(user -> user.bucket.getRate() <= 0);
+		var totalRate = this.users.values().stream().mapToLong(user -> user.bucket.getRate()).sum();
+		var shares = new HashMap<String, Share>();
+		transferred.forEach((name, bytes) -> {
+			var user = this.users.get(name);
+			if (user == null) {
+				return;
+			}
+			var actual = totalBytes == 0 ? 0 : (double) bytes / totalBytes;
+			var configured = unlimited || totalRate == 0 ? 1.0 / transferred.size() : (double) user.bucket.getRate() / totalRate;
+			shares.put(name, new Share(bytes, actual, configured));
+		});
+		var shareGauges = this.shareGauges;
+		if (shareGauges != null) {
+			var rows = new ArrayList<MultiGauge.Row<?>>();
+			shares.forEach((name, share) -> {
+				rows.add(MultiGauge.Row.of(Tags.of("user", name, "kind", "actual"), share.getActual()));
+				rows.add(MultiGauge.Row.of(Tags.of("user", name, "kind", "configured"), share.getConfigured()));
+			});
+			shareGauges.register(rows, true);
+		}
+		return shares;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.shareGauges = MultiGauge.builder("ftp.bandwidth.share")
+			.description("each shaped user's share of the bytes transferred, and of the bandwidth configured")
+			.register(registry);
+	}
+
+	@Getter
+	@RequiredArgsConstructor
+	static class Share {
+
+		private final long bytes;
+		private final double actual;
+		private final double configured;
+	}
+
+	private static class UserBandwidth {
+
+		private final TokenBucket bucket;
+		private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+		private final LongAdder transferred = new LongAdder();
+
+		UserBandwidth(TokenBucket bucket) {
+			this.bucket = bucket;
+		}
+
+		void configure(BandwidthLimits limits) {
+			this.bucket.setRate(limits.getUserRate());
+			this.sessions.forEach(session -> session.bucket.setRate(limits.getSessionRate()));
+		}
+
+		long takeTransferred() {
+			return this.transferred.sumThenReset();
+		}
+	}
+
+	/**
+		* The bandwidth of one FTP session. Closing it drops the user's bucket once their last session is gone.
+		*/
+	class Session {
+
+		private final String username;
+		private UserBandwidth user;
+		private TokenBucket bucket;
+
+		private Session(String username) {
+			this.username = username;
+		}
+
+		private void attach(UserBandwidth user, long rate) {
+			this.user = user;
+			this.bucket = new TokenBucket(user.bucket, rate);
+			user.sessions.add(this);
+		}
+
+		InputStream shape(InputStream in) {
+			return new FilterInputStream(in) {
+
+				@Override
+				public int read() throws IOException {
+					var read = super.read();
+					if (read >= 0) {
+						Session.this.acquire(1);
+					}
+					return read;
+				}
+
+				@Override
+				public int read(byte[] bytes, int offset, int length) throws IOException {
+					var read = this.in.read(bytes, offset, Session.this.isLimited() ? Math.min(length, CHUNK_SIZE) : length);
+					if (read > 0) {
+						Session.this.acquire(read);
+					}
+					return read;
+				}
+			};
+		}
+
+		OutputStream shape(OutputStream out) {
+			return new FilterOutputStream(out) {
+
+				@Override
+				public void write(int b) throws IOException {
+					Session.this.acquire(1);
+					this.out.write(b);
+				}
+
+				@Override
+				public void write(byte[] bytes, int offset, int length) throws IOException {
+					if (!Session.this.isLimited()) {
+						Session.this.acquire(length);
+						this.out.write(bytes, offset, length);
+						return;
+					}
+					while (length > 0) {
+						var chunk = Math.min(length, CHUNK_SIZE);
+						Session.this.acquire(chunk);
+						this.out.write(bytes, offset, chunk);
+						offset += chunk;
+						length -= chunk;
+					}
+				}
+			};
+		}
+
+		void close() {
+			this.user.sessions.remove(this);
+			BandwidthShaper.this.users.computeIfPresent(this.username, (name, user) -> user.sessions.isEmpty() ? null : user);
+		}
+
+		/**
+			* @return whether any level holds this session back, which is asked again for every read and write since the
+			* limits can change while a transfer runs
+			*/
+		private boolean isLimited() {
+			return this.bucket.getRate() > 0 || this.user.bucket.getRate() > 0 || BandwidthShaper.this.global.getRate() > 0;
+		}
+
+		private void acquire(int bytes) throws InterruptedIOException {
+			this.user.transferred.add(bytes);
+			if (!this.isLimited()) {
+				return;
+			}
+			try {
+				this.bucket.acquire(bytes);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for bandwidth");
+			}
+		}
+	}
+}
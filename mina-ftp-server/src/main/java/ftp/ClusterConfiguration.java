@@ -0,0 +1,64 @@
+package ftp;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.TaskScheduler;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+	* Lets several nodes behind a TCP load balancer share the same PostgreSQL database and still hold each user to their
+	* login limits and bandwidth, and see each other's changes to users straight away. The nodes keep no state of their
+	* own that the others need, so nodes can be added and removed freely.
+	*/
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty("ftp.cluster.enabled")
+class ClusterConfiguration {
+
+	/**
+		* The node joins the cluster as soon as it's created, which is before the server it's needed by takes logins.
+		*/
+	@Bean
+	FtpCluster ftpCluster(
+		DataSource dataSource,
+		@Value("${ftp.cluster.node-id:${random.uuid}}") String node,
+		@Value("${ftp.cluster.node-timeout:30s}") Duration nodeTimeout) {
+		var ftpCluster = new FtpCluster(node, dataSource, nodeTimeout);
+		ftpCluster.heartbeat();
+		return ftpCluster;
+	}
+
+	@Bean
+	ClusterLoginFtplet clusterLoginFtplet(FtpCluster ftpCluster, FtpUserManager userManager) {
+		return new ClusterLoginFtplet(ftpCluster, userManager);
+	}
+
+	@Bean
+	ClusterInvalidations clusterInvalidations(
+		FtpCluster ftpCluster,
+		DataSource dataSource,
+		UserCache userCache,
+		HomeShards homeShards,
+		@Value("${ftp.cluster.poll-interval:500ms}") Duration pollInterval) throws SQLException {
+		return new ClusterInvalidations(ftpCluster.getNode(), dataSource, userCache, homeShards, pollInterval);
+	}
+
+	@Bean
+	ApplicationListener<ApplicationReadyEvent> heartbeats(
+		TaskScheduler taskScheduler,
+		FtpCluster ftpCluster,
+		ClusterInvalidations clusterInvalidations,
+		@Value("${ftp.cluster.heartbeat-interval:10s}") Duration interval) {
+		return event -> taskScheduler.scheduleWithFixedDelay(() -> {
+			ftpCluster.heartbeat();
+			clusterInvalidations.prune(Duration.ofMinutes(10));
+			clusterInvalidations.releaseMoves(ftpCluster.liveNodes());
+		}, interval);
+	}
+}
@@ -0,0 +1,235 @@
+package ftp;
+
+import lombok.extern.log4j.Log4j2;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+	* Passes the {@link UserCache} invalidations of this node to the other nodes, and theirs to this one, along with the
+	* {@link HomeShards} roots added and homes being moved. On PostgreSQL they're sent with {@code NOTIFY} and received on
+	* a connection of their own that {@code LISTEN}s. Other databases, like the H2 of the tests and the load tests, get
+	* the same from a table that every node polls, which can miss an invalidation whose insert commits after a later
+	* one's: the cache's TTL still bounds how stale a user gets.
+	*/
+@Log4j2
+class ClusterInvalidations implements DisposableBean {
+
+	static final String CHANNEL = "ftp_user_cache";
+
+	/**
+		* Sent for {@link UserCache#invalidateAll()}, and never a username because FTP has no empty usernames.
+		*/
+	private static final String ALL = "";
+
+	private static final String USER = "user";
+	private static final String ROOT = "root";
+	private static final String MOVING = "moving";
+	private static final String MOVED = "moved";
+
+	private final String insertEventSql = "insert into ftp_cluster_event (node, payload, created) values (?, ?, ?)";
+	private final String selectLastEventSql = "select coalesce(max(id), 0) from ftp_cluster_event";
+	private final String selectEventsSql = "select id, node, payload from ftp_cluster_event where id > ? order by id";
+	private final String deleteEventsSql = "delete from ftp_cluster_event where created < ?";
+
+	private final String node;
+	private final DataSource dataSource;
+	private final JdbcTemplate jdbcTemplate;
+	private final UserCache userCache;
+	private final HomeShards homeShards;
+	private final Map<File, String> moves = new ConcurrentHashMap<>();
+	private final Duration pollInterval;
+	private final boolean postgres;
+	private final Thread listener;
+	private volatile boolean running = true;
+
+	ClusterInvalidations(String node, DataSource dataSource, UserCache userCache, HomeShards homeShards, Duration pollInterval) throws SQLException {
+		this.node = node;
+		this.dataSource = dataSource;
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.userCache = userCache;
+		this.homeShards = homeShards;
+		this.pollInterval = pollInterval;
+		try (var connection = dataSource.getConnection()) {
+			this.postgres = connection.isWrapperFor(PGConnection.class);
+		}
+		this.listener = new Thread(this.postgres ? this::listen : this::poll, "cluster-invalidations");
+		this.listener.setDaemon(true);
+		this.listener.start();
+		userCache.onInvalidate(username -> this.publish(USER, username == null ? ALL : username));
+		homeShards.onRootAdded(root -> this.publish(ROOT, root.getPath()));
+		homeShards.onMoving(this::moving);
+	}
+
+	/**
+		* Waits, once the others have been told a home is moving, for as long as it takes them to hear of it.
+		*/
+	private void moving(File home, boolean moving) {
+		this.publish(moving ? MOVING : MOVED, home.getPath());
+		if (moving) {
+			try {
+				Thread.sleep(this.pollInterval.toMillis());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void publish(String kind, String value) {
+		var payload = this.node + ":" + kind + ":" + value;
+		if (this.postgres) {
+			this.jdbcTemplate.query("select pg_notify(?, ?)", resultSet -> {
+			}, CHANNEL, payload);
+		}
+		else {
+			this.jdbcTemplate.update(this.insertEventSql, this.node, payload, Timestamp.from(Instant.now()));
+		}
+	}
+
+	private void receive(String payload) {
+		var parts = payload.split(":", 3);
+		if (parts.length < 3 || parts[0].equals(this.node)) {
+			return;
+		}
+		var from = parts[0];
+		var value = parts[2];
+		switch (parts[1]) {
+			case USER:
+				if (value.equals(ALL)) {
+					this.userCache.evictAll();
+				}
+				else {
+					this.userCache.evict(value);
+				}
+				break;
+			case ROOT:
+				this.homeShards.rootAdded(new File(value));
+				break;
+			case MOVING:
+				this.moves.put(new File(value), from);
+				this.homeShards.markMoving(new File(value), true);
+				break;
+			case MOVED:
+				this.moves.remove(new File(value));
+				this.homeShards.markMoving(new File(value), false);
+				break;
+			default:
+				log.debug("ignoring the cluster event " + payload);
+		}
+	}
+
+	/**
+		* Lets the users whose homes were being moved by a node that has since died log in again. Their homes are wherever
+		* the move left them, which {@link HomeShards#home} finds.
+		*/
+	void releaseMoves(Set<String> liveNodes) {
+		this.moves.forEach((home, node) -> {
+			if (!liveNodes.contains(node) && this.moves.remove(home, node)) {
+				log.warn("node " + node + " died while moving " + home);
+				this.homeShards.markMoving(home, false);
+			}
+		});
+	}
+
+	private void listen() {
+		while (this.running) {
+			Connection connection = null;
+			try {
+				connection = this.dataSource.getConnection();
+				try (var statement = connection.createStatement()) {
+					statement.execute("listen " + CHANNEL);
+				}
+				// whatever was sent while there was no connection listening is lost
+				this.userCache.evictAll();
+				var pgConnection = connection.unwrap(PGConnection.class);
+				while (this.running) {
+					var notifications = pgConnection.getNotifications((int) this.pollInterval.toMillis());
+					for (var notification : notifications == null ? new PGNotification[0] : notifications) {
+						this.receive(notification.getParameter());
+					}
+				}
+			}
+			catch (SQLException e) {
+				this.pause(e);
+			}
+			finally {
+				JdbcUtils.closeConnection(connection);
+			}
+		}
+	}
+
+	private void poll() {
+		var last = 0L;
+		var started = false;
+		while (this.running) {
+			try {
+				if (!started) {
+					last = this.jdbcTemplate.queryForObject(this.selectLastEventSql, Long.class);
+					started = true;
+				}
+				for (var event : this.jdbcTemplate.queryForList(this.selectEventsSql, last)) {
+					last = ((Number) event.get("id")).longValue();
+					this.receive((String) event.get("payload"));
+				}
+				Thread.sleep(this.pollInterval.toMillis());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (RuntimeException e) {
+				this.pause(e);
+			}
+		}
+	}
+
+	/**
+		* Deletes the polled invalidations that every node has long since seen.
+		*/
+	void prune(Duration age) {
+		if (!this.postgres) {
+			this.jdbcTemplate.update(this.deleteEventsSql, Timestamp.from(Instant.now().minus(age)));
+		}
+	}
+
+	private void pause(Exception e) {
+		if (!this.running) {
+			return;
+		}
+		log.warn("lost the cluster's cache invalidations, retrying: " + e.getMessage());
+		try {
+			Thread.sleep(this.pollInterval.toMillis());
+		}
+		catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			this.running = false;
+		}
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+		this.running = false;
+		this.userCache.onInvalidate(username -> {
+		});
+		this.homeShards.onRootAdded(root -> {
+		});
+		this.homeShards.onMoving((home, moving) -> {
+		});
+		this.listener.interrupt();
+		this.listener.join(this.pollInterval.toMillis() * 2);
+	}
+}
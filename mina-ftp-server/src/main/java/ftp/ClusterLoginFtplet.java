@@ -0,0 +1,55 @@
+package ftp;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.ftplet.UserManager;
+
+import java.io.IOException;
+
+/**
+	* Turns away a login that is within the user's limits on this node but not across the {@link FtpCluster}. The login
+	* is counted before the password is checked, as Mina counts its own, because {@code onLogin} only runs once the
+	* client has been told it's logged in. It is given back if the password turns out to be wrong.
+	*/
+@Log4j2
+@RequiredArgsConstructor
+class ClusterLoginFtplet extends DefaultFtplet {
+
+	private final FtpCluster cluster;
+	private final UserManager userManager;
+
+	@Override
+	public FtpletResult beforeCommand(FtpSession session, FtpRequest request) throws FtpException, IOException {
+		if (!request.getCommand().equalsIgnoreCase("PASS") || session.isLoggedIn() || session.getUserArgument() == null) {
+			return super.beforeCommand(session, request);
+		}
+		var user = this.userManager.getUserByName(session.getUserArgument());
+		if (user == null || this.cluster.login(session, user)) {
+			return FtpletResult.DEFAULT;
+		}
+		log.debug("too many logins for " + user.getName() + " across the cluster");
+		session.write(new DefaultFtpReply(FtpReply.REPLY_421_SERVICE_NOT_AVAILABLE_CLOSING_CONTROL_CONNECTION, "Too many users logged in, closing control connection"));
+		return FtpletResult.DISCONNECT;
+	}
+
+	@Override
+	public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply) throws FtpException, IOException {
+		if (request.getCommand().equalsIgnoreCase("PASS") && !session.isLoggedIn()) {
+			this.cluster.logout(session);
+		}
+		return super.afterCommand(session, request, reply);
+	}
+
+	@Override
+	public FtpletResult onDisconnect(FtpSession session) throws FtpException {
+		this.cluster.logout(session);
+		return FtpletResult.DEFAULT;
+	}
+}
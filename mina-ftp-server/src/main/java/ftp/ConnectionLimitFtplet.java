@@ -0,0 +1,53 @@
+package ftp;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+	* Turns away a connection when its client address already has the maximum number of connections open.
+	*/
+@Log4j2
+class ConnectionLimitFtplet extends DefaultFtplet {
+
+	private static final String COUNTED = ConnectionLimitFtplet.class.getName() + ".counted";
+
+	private final int maxConnectionsPerIp;
+	private final Map<InetAddress, Integer> connections = new ConcurrentHashMap<>();
+
+	ConnectionLimitFtplet(int maxConnectionsPerIp) {
+		this.maxConnectionsPerIp = maxConnectionsPerIp;
+	}
+
+	@Override
+	public FtpletResult onConnect(FtpSession session) throws FtpException {
+		if (this.maxConnectionsPerIp <= 0) {
+			return FtpletResult.DEFAULT;
+		}
+		var address = session.getClientAddress().getAddress();
+		var count = this.connections.merge(address, 1, Integer::sum);
+		session.setAttribute(COUNTED, Boolean.TRUE);
+		if (count > this.maxConnectionsPerIp) {
+			log.debug("too many connections from " + address);
+			session.write(new DefaultFtpReply(FtpReply.REPLY_421_SERVICE_NOT_AVAILABLE_CLOSING_CONTROL_CONNECTION, "Too many connections from your address."));
+			return FtpletResult.DISCONNECT;
+		}
+		return FtpletResult.DEFAULT;
+	}
+
+	@Override
+	public FtpletResult onDisconnect(FtpSession session) throws FtpException {
+		if (session.getAttribute(COUNTED) != null) {
+			this.connections.computeIfPresent(session.getClientAddress().getAddress(), (address, count) -> count > 1 ? count - 1 : null);
+		}
+		return FtpletResult.DEFAULT;
+	}
+}
@@ -0,0 +1,59 @@
+package ftp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.ftp.server.ApacheMinaFtpEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+	* How far behind the FTP event pipeline is, how many events it had to drop to keep up, and how many of each type of
+	* event it delivered. The counts are only kept once the metrics are bound to a registry.
+	*/
+@RequiredArgsConstructor
+class EventPipelineMetrics implements MeterBinder {
+
+	private final QueueChannel events;
+	private final AtomicLong dropped = new AtomicLong();
+	private final Map<Class<?>, Counter> delivered = new ConcurrentHashMap<>();
+	private volatile MeterRegistry registry;
+
+	int queueDepth() {
+		return this.events.getQueueSize();
+	}
+
+	long dropped() {
+		return this.dropped.get();
+	}
+
+	void drop() {
+		this.dropped.incrementAndGet();
+	}
+
+	void delivered(ApacheMinaFtpEvent event) {
+		var registry = this.registry;
+		if (registry == null) {
+			return;
+		}
+		var counter = this.delivered.get(event.getClass());
+		if (counter == null) {
+			counter = this.delivered.computeIfAbsent(event.getClass(),
+				type -> Counter.builder("ftp.events").tag("type", type.getSimpleName()).register(registry));
+		}
+		counter.increment();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("ftp.events.queue.depth", this, EventPipelineMetrics::queueDepth).register(registry);
+		FunctionCounter.builder("ftp.events.dropped", this, EventPipelineMetrics::dropped).register(registry);
+		this.registry = registry;
+	}
+}
@@ -0,0 +1,159 @@
+package ftp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+	* Off-heap cache of the content of small, frequently downloaded files, keyed by absolute path and bounded by the
+	* total number of bytes held. Caffeine evicts on both recency and frequency, so a burst of one-off downloads doesn't
+	* push out the files everybody keeps asking for. An entry is dropped when the file is written, moved or deleted through
+	* the server, and is ignored if the file's size or modification time has changed behind the server's back.
+	*/
+@Log4j2
+class FileContentCache {
+
+	private final Cache<String, Entry> cache;
+	private final long maximumFileSize;
+	private final LongAdder bytesServed = new LongAdder();
+
+	private FileContentCache(Cache<String, Entry> cache, long maximumFileSize) {
+		this.cache = cache;
+		this.maximumFileSize = maximumFileSize;
+	}
+
+	static FileContentCache of(long maximumSize, long maximumFileSize) {
+		return new FileContentCache(Caffeine.newBuilder()
+			.maximumWeight(maximumSize)
+			.<String, Entry>weigher((path, entry) -> entry.content.capacity())
+			.recordStats()
+			.build(), Math.min(maximumFileSize, Integer.MAX_VALUE));
+	}
+
+	static FileContentCache disabled() {
+		return new FileContentCache(null, 0);
+	}
+
+	/**
+		* Returns a stream over the cached content of the file from the offset, loading it first on a miss, or null if the
+		* file shouldn't be cached and has to be read from disk.
+		*/
+	InputStream open(File file, long offset) throws IOException {
+		if (this.cache == null || !file.isFile() || file.length() > this.maximumFileSize) {
+			return null;
+		}
+		var key = file.getAbsolutePath();
+		var entry = this.cache.getIfPresent(key);
+		if (entry == null || entry.isStale(file)) {
+			entry = Entry.load(file);
+			if (entry == null) {
+				return null;
+			}
+			this.cache.put(key, entry);
+		}
+		var content = entry.content.duplicate();
+		content.position((int) Math.min(offset, content.limit()));
+		return new ContentInputStream(content, this.bytesServed);
+	}
+
+	void invalidate(File file) {
+		if (this.cache != null) {
+			this.cache.invalidate(file.getAbsolutePath());
+		}
+	}
+
+	boolean isEnabled() {
+		return this.cache != null;
+	}
+
+	CacheStats stats() {
+		return this.cache == null ? CacheStats.empty() : this.cache.stats();
+	}
+
+	long bytesServed() {
+		return this.bytesServed.sum();
+	}
+
+	private static class Entry {
+
+		private final ByteBuffer content;
+		private final long lastModified;
+
+		private Entry(ByteBuffer content, long lastModified) {
+			this.content = content;
+			this.lastModified = lastModified;
+		}
+
+		boolean isStale(File file) {
+			return file.length() != this.content.capacity() || file.lastModified() != this.lastModified;
+		}
+
+		/**
+			* Reads the whole file into a direct buffer, or returns null if it changed while it was being read.
+			*/
+		static Entry load(File file) throws IOException {
+			var lastModified = file.lastModified();
+			try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				var content = ByteBuffer.allocateDirect((int) channel.size());
+				while (content.hasRemaining()) {
+					if (channel.read(content) < 0) {
+						break;
+					}
+				}
+				if (content.hasRemaining() || channel.size() != content.capacity() || file.lastModified() != lastModified) {
+					log.debug(file.getAbsolutePath() + " changed while it was being cached");
+					return null;
+				}
+				return new Entry(content.flip().asReadOnlyBuffer(), lastModified);
+			}
+		}
+	}
+
+	private static class ContentInputStream extends InputStream {
+
+		private final ByteBuffer content;
+		private final LongAdder bytesServed;
+
+		ContentInputStream(ByteBuffer content, LongAdder bytesServed) {
+			this.content = content;
+			this.bytesServed = bytesServed;
+		}
+
+		@Override
+		public int read() {
+			if (!this.content.hasRemaining()) {
+				return -1;
+			}
+			this.bytesServed.increment();
+			return this.content.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!this.content.hasRemaining()) {
+				return -1;
+			}
+			var read = Math.min(length, this.content.remaining());
+			this.content.get(bytes, offset, read);
+			this.bytesServed.add(read);
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return this.content.remaining();
+		}
+	}
+}
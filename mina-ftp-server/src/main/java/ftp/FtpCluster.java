@@ -0,0 +1,205 @@
+package ftp;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginRequest;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+	* The state that the nodes of a cluster, all sharing the same database, have to agree on: who is logged in where, so
+	* that a user's {@code ConcurrentLoginPermission} holds across the nodes and their bandwidth can be shared out between
+	* them. Each node writes a heartbeat, and the logins of a node that stops writing it are ignored and then deleted.
+	*/
+@Log4j2
+class FtpCluster implements DisposableBean {
+
+	private final String insertNodeSql = "insert into ftp_node (node, heartbeat) values (?, ?)";
+	private final String updateNodeSql = "update ftp_node set heartbeat = ? where node = ?";
+	private final String deleteExpiredLoginsSql = "delete from ftp_login where node in (select node from ftp_node where heartbeat <= ?)";
+	private final String deleteExpiredNodesSql = "delete from ftp_node where heartbeat <= ?";
+	private final String lockUserSql = "select id from ftp_user where username = ? for update";
+	private final String countLoginsSql = "select count(*), count(case when l.address = ? then 1 end) from ftp_login l " +
+		"join ftp_node n on n.node = l.node where l.username = ? and n.heartbeat > ?";
+	private final String countUserLoginsSql = "select count(*) from ftp_login l join ftp_node n on n.node = l.node where l.username = ? and n.heartbeat > ?";
+	private final String insertLoginSql = "insert into ftp_login (session_id, node, username, address) values (?, ?, ?, ?)";
+	private final String deleteLoginSql = "delete from ftp_login where session_id = ?";
+	private final String deleteNodeSql = "delete from ftp_node where node = ?";
+	private final String deleteNodeLoginsSql = "delete from ftp_login where node = ?";
+	private final String takeLockSql = "update ftp_lock l set node = ? where l.name = ? and (l.node = ? or l.node not in (select n.node from ftp_node n where n.heartbeat > ?))";
+	private final String insertLockSql = "insert into ftp_lock (name, node) values (?, ?)";
+	private final String deleteLockSql = "delete from ftp_lock where name = ? and node = ?";
+	private final String deleteNodeLocksSql = "delete from ftp_lock where node = ?";
+	private final String selectLiveNodesSql = "select node from ftp_node where heartbeat > ?";
+	private final String countLoginsByNodeSql = "select l.username, l.node, count(*) as logins from ftp_login l " +
+		"join ftp_node n on n.node = l.node where l.username in (:usernames) and n.heartbeat > :live group by l.username, l.node";
+
+	@Getter
+	private final String node;
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final Duration nodeTimeout;
+	private final Map<String, Login> logins = new ConcurrentHashMap<>();
+
+	FtpCluster(String node, DataSource dataSource, Duration nodeTimeout) {
+		this.node = node;
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		this.nodeTimeout = nodeTimeout;
+	}
+
+	/**
+		* Tells the other nodes this one is alive, and forgets the nodes that aren't. A node that was itself taken for dead
+		* (after a long pause, say) writes its logins back.
+		*/
+	void heartbeat() {
+		var now = Instant.now();
+		if (this.jdbcTemplate.update(this.updateNodeSql, Timestamp.from(now), this.node) == 0) {
+			this.jdbcTemplate.update(this.insertNodeSql, this.node, Timestamp.from(now));
+			this.logins.forEach((sessionId, login) -> {
+				this.jdbcTemplate.update(this.deleteLoginSql, sessionId);
+				this.jdbcTemplate.update(this.insertLoginSql, sessionId, this.node, login.username, login.address);
+			});
+			log.info("node " + this.node + " joined the cluster with " + this.logins.size() + " logins");
+		}
+		var expired = Timestamp.from(now.minus(this.nodeTimeout));
+		this.jdbcTemplate.update(this.deleteExpiredLoginsSql, expired);
+		this.jdbcTemplate.update(this.deleteExpiredNodesSql, expired);
+	}
+
+	/**
+		* Counts the login against the user's limits on every node, with the user's row locked so that two nodes can't
+		* both let in the last login allowed.
+		*
+		* @return whether the user is within their limits, in which case the login is recorded until {@link #logout}
+		*/
+	boolean login(FtpSession session, User user) {
+		var login = new Login(user.getName(), session.getClientAddress().getAddress().getHostAddress());
+		var sessionId = session.getSessionId().toString();
+		var admitted = this.transactionTemplate.execute(status -> {
+			this.jdbcTemplate.query(this.lockUserSql, resultSet -> {
+			}, login.username);
+			var counts = this.jdbcTemplate.queryForObject(this.countLoginsSql, (resultSet, i) -> new int[]{resultSet.getInt(1), resultSet.getInt(2)},
+				login.address, login.username, this.live());
+			if (user.authorize(new ConcurrentLoginRequest(counts[0] + 1, counts[1] + 1)) == null) {
+				return false;
+			}
+			this.jdbcTemplate.update(this.insertLoginSql, sessionId, this.node, login.username, login.address);
+			return true;
+		});
+		if (Boolean.TRUE.equals(admitted)) {
+			this.logins.put(sessionId, login);
+			return true;
+		}
+		return false;
+	}
+
+	void logout(FtpSession session) {
+		var sessionId = session.getSessionId().toString();
+		if (this.logins.remove(sessionId) != null) {
+			this.jdbcTemplate.update(this.deleteLoginSql, sessionId);
+		}
+	}
+
+	/**
+		* @return whether the user is logged in on any node, or is logging in, since a login is counted before its password
+		* is checked
+		*/
+	boolean isLoggedIn(String username) {
+		var logins = this.jdbcTemplate.queryForObject(this.countUserLoginsSql, Integer.class, username, this.live());
+		return logins != null && logins > 0;
+	}
+
+	/**
+		* Takes the named lock, for work that only one node at a time may do. A lock whose node has stopped beating is free,
+		* so a node that dies holding it holds up the others for no longer than {@code nodeTimeout}.
+		*
+		* @return whether this node holds the lock, which it does until it {@link #unlock unlocks} it
+		*/
+	boolean tryLock(String name) {
+		if (this.jdbcTemplate.update(this.takeLockSql, this.node, name, this.node, this.live()) > 0) {
+			return true;
+		}
+		try {
+			return this.jdbcTemplate.update(this.insertLockSql, name, this.node) > 0;
+		}
+		catch (DuplicateKeyException e) {
+			return false;
+		}
+	}
+
+	void unlock(String name) {
+		this.jdbcTemplate.update(this.deleteLockSql, name, this.node);
+	}
+
+	/**
+		* @return the nodes that are still beating, this one included
+		*/
+	Set<String> liveNodes() {
+		return new HashSet<>(this.jdbcTemplate.queryForList(this.selectLiveNodesSql, String.class, this.live()));
+	}
+
+	/**
+		* @return for each of the users logged in here, the fraction of their sessions that are on this node
+		*/
+	Map<String, Double> localShares(Collection<String> usernames) {
+		var shares = new HashMap<String, Double>();
+		var names = List.copyOf(usernames);
+		if (names.isEmpty()) {
+			return shares;
+		}
+		var local = new HashMap<String, Integer>();
+		var total = new HashMap<String, Integer>();
+		new NamedParameterJdbcTemplate(this.jdbcTemplate).query(this.countLoginsByNodeSql, Map.of("usernames", names, "live", this.live()), resultSet -> {
+			var username = resultSet.getString("username");
+			var logins = resultSet.getInt("logins");
+			total.merge(username, logins, Integer::sum);
+			if (this.node.equals(resultSet.getString("node"))) {
+				local.merge(username, logins, Integer::sum);
+			}
+		});
+		names.forEach(username -> shares.put(username, total.getOrDefault(username, 0) == 0 ? 1.0 : local.getOrDefault(username, 0) / (double) total.get(username)));
+		return shares;
+	}
+
+	private Timestamp live() {
+		return Timestamp.from(Instant.now().minus(this.nodeTimeout));
+	}
+
+	/**
+		* Leaves the cluster, so that the other nodes don't count this node's logins until it would have timed out.
+		*/
+	@Override
+	public void destroy() {
+		this.jdbcTemplate.update(this.deleteNodeLoginsSql, this.node);
+		this.jdbcTemplate.update(this.deleteNodeLocksSql, this.node);
+		this.jdbcTemplate.update(this.deleteNodeSql, this.node);
+		this.logins.clear();
+	}
+
+	@RequiredArgsConstructor
+	private static class Login {
+
+		private final String username;
+		private final String address;
+	}
+}
@@ -0,0 +1,145 @@
+package ftp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpStatistics;
+import org.apache.ftpserver.ftplet.FtpletContext;
+import org.apache.ftpserver.ftplet.FtpletResult;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+	* Times logins and transfers and counts failed commands, from the server's own command callbacks. Sessions, logins
+	* and bytes are read from the server's {@link FtpStatistics} when the registry is scraped. Every meter but the
+	* failures of each user is registered up front, and each session's timings live in one object made when it connects,
+	* so a command doesn't allocate. Failures are only counted per user for users who have logged in, and under
+	* {@code anonymous} before that, since anyone can send {@code USER} with a made-up name.
+	*/
+class FtpMetricsFtplet extends DefaultFtplet {
+
+	private static final String TIMINGS = FtpMetricsFtplet.class.getName() + ".timings";
+	private static final String ANONYMOUS = "anonymous";
+
+	private final MeterRegistry registry;
+	private final boolean failuresPerUser;
+	private final Timer successfulLogins;
+	private final Timer failedLogins;
+	private final Timer uploads;
+	private final Timer failedUploads;
+	private final Timer downloads;
+	private final Timer failedDownloads;
+	private final Map<String, Counter> failures = new ConcurrentHashMap<>();
+
+	FtpMetricsFtplet(MeterRegistry registry, boolean failuresPerUser) {
+		this.registry = registry;
+		this.failuresPerUser = failuresPerUser;
+		this.successfulLogins = Timer.builder("ftp.logins").tag("outcome", "success").register(registry);
+		this.failedLogins = Timer.builder("ftp.logins").tag("outcome", "failure").register(registry);
+		this.uploads = this.transferTimer("upload", "success");
+		this.failedUploads = this.transferTimer("upload", "failure");
+		this.downloads = this.transferTimer("download", "success");
+		this.failedDownloads = this.transferTimer("download", "failure");
+	}
+
+	private Timer transferTimer(String direction, String outcome) {
+		return Timer.builder("ftp.transfers")
+			.tag("direction", direction)
+			.tag("outcome", outcome)
+			.publishPercentileHistogram()
+			.register(this.registry);
+	}
+
+	@Override
+	public void init(FtpletContext context) throws FtpException {
+		var statistics = context.getFtpStatistics();
+		Gauge.builder("ftp.sessions.active", statistics, FtpStatistics::getCurrentConnectionNumber).register(this.registry);
+		Gauge.builder("ftp.logins.active", statistics, FtpStatistics::getCurrentLoginNumber).register(this.registry);
+		FunctionCounter.builder("ftp.bytes", statistics, FtpStatistics::getTotalUploadSize).baseUnit("bytes").tag("direction", "in").register(this.registry);
+		FunctionCounter.builder("ftp.bytes", statistics, FtpStatistics::getTotalDownloadSize).baseUnit("bytes").tag("direction", "out").register(this.registry);
+	}
+
+	@Override
+	public FtpletResult onConnect(FtpSession session) throws FtpException, IOException {
+		session.setAttribute(TIMINGS, new Timings());
+		return super.onConnect(session);
+	}
+
+	@Override
+	public FtpletResult beforeCommand(FtpSession session, FtpRequest request) throws FtpException, IOException {
+		var timings = (Timings) session.getAttribute(TIMINGS);
+		if (timings != null) {
+			switch (request.getCommand()) {
+				case "USER":
+					timings.loginStarted = System.nanoTime();
+					break;
+				case "STOR":
+				case "STOU":
+				case "APPE":
+				case "RETR":
+					timings.transferStarted = System.nanoTime();
+					break;
+			}
+		}
+		return super.beforeCommand(session, request);
+	}
+
+	@Override
+	public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply) throws FtpException, IOException {
+		var timings = (Timings) session.getAttribute(TIMINGS);
+		var code = reply.getCode();
+		if (timings != null) {
+			switch (request.getCommand()) {
+				case "PASS":
+					this.record(code == FtpReply.REPLY_230_USER_LOGGED_IN ? this.successfulLogins : this.failedLogins, timings.loginStarted);
+					break;
+				case "STOR":
+				case "STOU":
+				case "APPE":
+					this.record(this.transferred(code) ? this.uploads : this.failedUploads, timings.transferStarted);
+					break;
+				case "RETR":
+					this.record(this.transferred(code) ? this.downloads : this.failedDownloads, timings.transferStarted);
+					break;
+			}
+		}
+		if (code >= 400 && this.failuresPerUser) {
+			this.failures(session.getUser() != null ? session.getUser().getName() : ANONYMOUS).increment();
+		}
+		return super.afterCommand(session, request, reply);
+	}
+
+	private boolean transferred(int code) {
+		return code == FtpReply.REPLY_226_CLOSING_DATA_CONNECTION || code == FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY;
+	}
+
+	private void record(Timer timer, long started) {
+		if (started != 0) {
+			timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private Counter failures(String user) {
+		var counter = this.failures.get(user);
+		if (counter == null) {
+			counter = this.failures.computeIfAbsent(user, u -> Counter.builder("ftp.failures").tag("user", u).register(this.registry));
+		}
+		return counter;
+	}
+
+	private static class Timings {
+
+		private long loginStarted;
+		private long transferStarted;
+	}
+}
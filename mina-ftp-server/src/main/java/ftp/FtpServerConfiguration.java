@@ -1,51 +1,174 @@
 package ftp;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.extern.log4j.Log4j2;
+import org.apache.ftpserver.ConnectionConfigFactory;
+import org.apache.ftpserver.DataConnectionConfigurationFactory;
 import org.apache.ftpserver.FtpServer;
 import org.apache.ftpserver.FtpServerFactory;
 import org.apache.ftpserver.filesystem.nativefs.NativeFileSystemFactory;
 import org.apache.ftpserver.ftplet.FileSystemFactory;
 import org.apache.ftpserver.ftplet.Ftplet;
+import org.apache.ftpserver.impl.DefaultFtpServer;
 import org.apache.ftpserver.ftplet.UserManager;
 import org.apache.ftpserver.listener.Listener;
 import org.apache.ftpserver.listener.ListenerFactory;
-import org.springframework.beans.factory.DisposableBean;
-import org.springframework.beans.factory.InitializingBean;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.util.Assert;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.unit.DataSize;
 
 import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Log4j2
-@Configuration
+@Configuration(proxyBeanMethods = false)
+@EnableConfigurationProperties(FtpServerProperties.class)
 class FtpServerConfiguration {
 
+	private static final String REBALANCE_LOCK = "rebalance-homes";
+
 	@Bean
-	FileSystemFactory fileSystemFactory() {
+	FileSystemFactory fileSystemFactory(
+		FtpServerProperties properties,
+		FileContentCache fileContentCache,
+		BandwidthShaper bandwidthShaper,
+		HomeShards homeShards,
+		@Value("${ftp.bandwidth.enabled:true}") boolean shaped) {
 		NativeFileSystemFactory fileSystemFactory = new NativeFileSystemFactory();
 		fileSystemFactory.setCreateHome(true);
 		fileSystemFactory.setCaseInsensitive(false);
-		return fileSystemFactory::createFileSystemView;
+		// with a single root the per-shard counts would only repeat the totals
+		var sharded = homeShards.shards().size() > 1;
+		if (properties.getMappedReadThreshold() == null && !fileContentCache.isEnabled() && !shaped && !sharded) {
+			return fileSystemFactory::createFileSystemView;
+		}
+		long threshold = properties.getMappedReadThreshold() == null ? Long.MAX_VALUE : properties.getMappedReadThreshold().toBytes();
+		return user -> {
+			var limits = user instanceof FtpUser ? ((FtpUser) user).getBandwidthLimits() : BandwidthLimits.UNLIMITED;
+			var bandwidth = shaped ? bandwidthShaper.open(user.getName(), limits) : null;
+			var shard = sharded ? homeShards.shardOf(new File(user.getHomeDirectory())) : null;
+			return new MappedFileSystemView(fileSystemFactory.createFileSystemView(user), threshold, fileContentCache, bandwidth, shard);
+		};
+	}
+
+	@Bean
+	BandwidthShaper bandwidthShaper(@Value("${ftp.bandwidth.global-rate:0B}") DataSize globalRate) {
+		return new BandwidthShaper(globalRate.toBytes());
+	}
+
+	/**
+		* Picks up changes to the limits in {@code ftp_user} for users who are connected, without them reconnecting, and
+		* updates the {@code ftp.bandwidth.share} gauges. In a cluster each node gets the share of a user's rate that it has
+		* of their sessions.
+		*/
+	@Bean
+	ApplicationListener<ApplicationReadyEvent> refreshesBandwidthLimits(
+		TaskScheduler taskScheduler,
+		BandwidthShaper bandwidthShaper,
+		FtpUserManager userManager,
+		ObjectProvider<FtpCluster> ftpCluster,
+		@Value("${ftp.bandwidth.refresh-interval:30s}") Duration interval) {
+		return event -> taskScheduler.scheduleWithFixedDelay(() -> {
+			var active = bandwidthShaper.activeUsers();
+			if (!active.isEmpty()) {
+				var limits = userManager.findBandwidthLimits(active);
+				var cluster = ftpCluster.getIfAvailable();
+				if (cluster != null) {
+					var shares = cluster.localShares(limits.keySet());
+					limits.replaceAll((user, userLimits) -> userLimits.getUserRate() == 0 ? userLimits :
+						new BandwidthLimits(Math.max(1, Math.round(userLimits.getUserRate() * shares.getOrDefault(user, 1.0))), userLimits.getSessionRate()));
+				}
+				limits.forEach(bandwidthShaper::configure);
+			}
+			var shares = bandwidthShaper.shares();
+			if (log.isDebugEnabled()) {
+				shares.forEach((user, share) -> log.debug(String.format("%s transferred %d bytes, %.1f%% of the total against a configured %.1f%%",
+					user, share.getBytes(), share.getActual() * 100, share.getConfigured() * 100)));
+			}
+		}, interval);
+	}
+
+	@Bean
+	FileContentCache fileContentCache(
+		@Value("${ftp.files.cache.enabled:false}") boolean enabled,
+		@Value("${ftp.files.cache.maximum-size:256MB}") DataSize maximumSize,
+		@Value("${ftp.files.cache.maximum-file-size:16MB}") DataSize maximumFileSize) {
+		return enabled ? FileContentCache.of(maximumSize.toBytes(), maximumFileSize.toBytes()) : FileContentCache.disabled();
 	}
 
 	@Bean
-	Listener nioListener(@Value("${ftp.port:7777}") int port) {
+	Listener nioListener(@Value("${ftp.port:7777}") int port, FtpServerProperties properties) {
+		DataConnectionConfigurationFactory dataConnectionConfigurationFactory = new DataConnectionConfigurationFactory();
+		dataConnectionConfigurationFactory.setIdleTime((int) properties.getDataIdleTimeout().toSeconds());
+		if (properties.getPassivePorts() != null) {
+			dataConnectionConfigurationFactory.setPassivePorts(properties.getPassivePorts());
+		}
+		if (properties.getPassiveExternalAddress() != null) {
+			dataConnectionConfigurationFactory.setPassiveExternalAddress(properties.getPassiveExternalAddress());
+		}
 		ListenerFactory listenerFactory = new ListenerFactory();
 		listenerFactory.setPort(port);
+		listenerFactory.setIdleTimeout((int) properties.getIdleTimeout().toSeconds());
+		listenerFactory.setDataConnectionConfiguration(dataConnectionConfigurationFactory.createDataConnectionConfiguration());
 		return listenerFactory.createListener();
 	}
 
 	@Bean
-	FtpServer ftpServer(Map<String, Ftplet> ftpletMap, UserManager userManager, Listener nioListener, FileSystemFactory fileSystemFactory) {
+	ConnectionLimitFtplet connectionLimitFtplet(FtpServerProperties properties) {
+		return new ConnectionLimitFtplet(properties.getMaxConnectionsPerIp());
+	}
+
+	@Bean
+	FtpMetricsFtplet ftpMetricsFtplet(MeterRegistry meterRegistry, @Value("${ftp.metrics.failures-per-user:true}") boolean failuresPerUser) {
+		return new FtpMetricsFtplet(meterRegistry, failuresPerUser);
+	}
+
+	/**
+		* Reports the hit ratio of the user, password and file caches and the bytes served from the file cache.
+		*/
+	@Bean
+	MeterBinder cacheMetrics(UserCache userCache, FileContentCache fileContentCache, PasswordVerifier passwordVerifier) {
+		return registry -> {
+			this.cacheGauges(registry, "users", userCache::stats);
+			this.cacheGauges(registry, "passwords", passwordVerifier::stats);
+			this.cacheGauges(registry, "files", fileContentCache::stats);
+			FunctionCounter.builder("ftp.cache.served", fileContentCache, FileContentCache::bytesServed).baseUnit("bytes").tag("cache", "files").register(registry);
+		};
+	}
+
+	private void cacheGauges(MeterRegistry registry, String cache, Supplier<CacheStats> stats) {
+		Gauge.builder("ftp.cache.hit.ratio", stats, s -> s.get().hitRate()).tag("cache", cache).register(registry);
+		FunctionCounter.builder("ftp.cache.requests", stats, s -> s.get().requestCount()).tag("cache", cache).register(registry);
+	}
+
+	@Bean
+	FtpServer ftpServer(Map<String, Ftplet> ftpletMap, UserManager userManager, Listener nioListener, FileSystemFactory fileSystemFactory, FtpServerProperties properties) {
+		ConnectionConfigFactory connectionConfigFactory = new ConnectionConfigFactory();
+		connectionConfigFactory.setMaxThreads(properties.getProcessingThreads());
+		connectionConfigFactory.setMaxLogins(properties.getMaxLogins());
+		connectionConfigFactory.setMaxLoginFailures(properties.getMaxLoginFailures());
 		FtpServerFactory ftpServerFactory = new FtpServerFactory();
-		ftpServerFactory.setListeners(Collections.singletonMap("default", nioListener));
+		ftpServerFactory.setConnectionConfig(connectionConfigFactory.createConnectionConfig());
+		// the server clears its listeners when it stops, so the map has to be mutable
+		ftpServerFactory.setListeners(new HashMap<>(Map.of("default", nioListener)));
 		ftpServerFactory.setFileSystem(fileSystemFactory);
 		ftpServerFactory.setFtplets(ftpletMap);
 		ftpServerFactory.setUserManager(userManager);
@@ -53,18 +176,120 @@ class FtpServerConfiguration {
 	}
 
 	@Bean
-	DisposableBean destroysFtpServer(FtpServer ftpServer) {
-		return ftpServer::stop;
+	FtpServerLifecycle ftpServerLifecycle(FtpServer ftpServer, Listener nioListener, FtpServerProperties properties) {
+		return new FtpServerLifecycle(ftpServer, nioListener, properties);
+	}
+
+	@Bean
+	FtpUserManager userManager(HomeShards homeShards, JdbcTemplate template, UserCache userCache, PasswordVerifier passwordVerifier) {
+		return new FtpUserManager(homeShards, template, userCache, passwordVerifier);
+	}
+
+	/**
+		* Successful checks are remembered for {@code ftp.users.password.cache-ttl}, so that clients that log in over and
+		* over don't pay for the hash every time. A changed password is checked again straight away.
+		*/
+	@Bean
+	PasswordVerifier passwordVerifier(
+		@Value("${ftp.users.password.algorithm:bcrypt}") String algorithm,
+		@Value("${ftp.users.password.bcrypt-strength:10}") int bcryptStrength,
+		@Value("${ftp.users.password.cache-size:10000}") long cacheSize,
+		@Value("${ftp.users.password.cache-ttl:5m}") Duration cacheTtl) {
+		return PasswordVerifier.of(algorithm, bcryptStrength, cacheSize, cacheTtl);
+	}
+
+	/**
+		* Hashes the passwords still stored as they are, in the background once the server is up, so as not to compete
+		* with the start for the CPU.
+		*/
+	@Bean
+	ApplicationListener<ApplicationReadyEvent> hashesPlainPasswords(
+		TaskScheduler taskScheduler,
+		FtpUserManager userManager,
+		@Value("${ftp.users.password.hash-plain:true}") boolean enabled) {
+		return event -> {
+			if (enabled) {
+				taskScheduler.schedule(() -> userManager.hashPlainPasswords(1_000), Instant.now());
+			}
+		};
+	}
+
+	/**
+		* The roots are comma separated, and should each be on their own disk. A root can also be added while the server
+		* runs, with a {@code POST} to {@code /actuator/storage}, but it has to be added here too to be used after a
+		* restart, or the homes moved onto it are no longer found.
+		*/
+	@Bean
+	HomeShards homeShards(
+		@Value("${ftp.storage.roots:${ftp.root:${HOME}/Desktop/root}}") String[] roots,
+		@Value("${ftp.storage.virtual-nodes:128}") int virtualNodes) {
+		return HomeShards.of(Arrays.stream(roots).map(String::trim).map(File::new).collect(Collectors.toList()), virtualNodes);
+	}
+
+	/**
+		* Moves the homes that aren't where the ring puts them, a batch at a time, after a root is added or when they're
+		* still in the old {@code <root>/<id>/home} layout. The homes of users who are logged in, here or on any other node
+		* of a cluster, are left for a later run. The nodes of a cluster share the roots, so only the node that holds the
+		* {@value #REBALANCE_LOCK} lock rebalances, and the others skip their run.
+		*/
+	@Bean
+	ApplicationListener<ApplicationReadyEvent> rebalancesHomes(
+		TaskScheduler taskScheduler,
+		HomeShards homeShards,
+		FtpUserManager userManager,
+		UserCache userCache,
+		FtpServer ftpServer,
+		ObjectProvider<FtpCluster> ftpCluster,
+		@Value("${ftp.storage.rebalance-interval:1m}") Duration interval,
+		@Value("${ftp.storage.rebalance-batch:100}") int batchSize) {
+		return event -> taskScheduler.scheduleWithFixedDelay(() -> {
+			var statistics = ((DefaultFtpServer) ftpServer).getServerContext().getFtpStatistics();
+			var cluster = ftpCluster.getIfAvailable();
+			if (cluster != null && !cluster.tryLock(REBALANCE_LOCK)) {
+				return;
+			}
+			try {
+				var ids = homeShards.misplaced(batchSize);
+				var names = userManager.findUserNames(ids);
+				var moved = homeShards.rebalance(
+					ids,
+					id -> {
+						var name = names.get(id);
+						if (name == null) {
+							return false;
+						}
+						var user = new BaseUser();
+						user.setName(name);
+						return statistics.getCurrentUserLoginNumber(user) > 0 || (cluster != null && cluster.isLoggedIn(name));
+					},
+					id -> {
+						var name = names.get(id);
+						if (name != null) {
+							userCache.invalidate(name);
+						}
+					});
+				if (moved > 0) {
+					log.info("moved " + moved + " home directories");
+				}
+			}
+			finally {
+				if (cluster != null) {
+					cluster.unlock(REBALANCE_LOCK);
+				}
+			}
+		}, interval);
 	}
 
 	@Bean
-	InitializingBean startsFtpServer(FtpServer ftpServer) {
-		return ftpServer::start;
+	StorageEndpoint storageEndpoint(HomeShards homeShards) {
+		return new StorageEndpoint(homeShards);
 	}
 
 	@Bean
-	UserManager userManager(@Value("${ftp.root:${HOME}/Desktop/root}") File root, JdbcTemplate template) {
-		Assert.isTrue(root.exists() || root.mkdirs(), "the root directory must exist.");
-		return new FtpUserManager(root, template);
+	UserCache userCache(
+		@Value("${ftp.users.cache.enabled:true}") boolean enabled,
+		@Value("${ftp.users.cache.maximum-size:10000}") long maximumSize,
+		@Value("${ftp.users.cache.ttl:60s}") Duration ttl) {
+		return enabled ? UserCache.of(maximumSize, ttl) : UserCache.disabled();
 	}
 }
@@ -0,0 +1,70 @@
+package ftp;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.listener.Listener;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.mina.transport.socket.SocketAcceptor;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+
+/**
+	* Starts the server once the context is refreshed, and stops it before the beans it uses are destroyed. Lifecycle
+	* beans are created even with {@code spring.main.lazy-initialization}, so in the {@code fast-start} profile this is
+	* what creates the server, and with it only the beans needed to take a login.
+	*/
+@Log4j2
+@RequiredArgsConstructor
+class FtpServerLifecycle implements SmartLifecycle {
+
+	private final FtpServer ftpServer;
+	private final Listener nioListener;
+	private final FtpServerProperties properties;
+
+	@Override
+	public void start() {
+		try {
+			this.ftpServer.start();
+		}
+		catch (FtpException e) {
+			throw new IllegalStateException("could not start the FTP server", e);
+		}
+		this.configureSockets();
+		log.info("listening on port " + this.nioListener.getPort());
+	}
+
+	@Override
+	public void stop() {
+		this.ftpServer.stop();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return !this.ftpServer.isStopped() && !this.ftpServer.isSuspended();
+	}
+
+	/**
+		* The listener only creates its acceptor when it starts, and {@link ListenerFactory} has no socket settings, so
+		* they're applied to the acceptor's session config here. Every connection accepted afterwards picks them up.
+		*/
+	private void configureSockets() {
+		var field = ReflectionUtils.findField(this.nioListener.getClass(), "acceptor");
+		Assert.notNull(field, "the listener must have an acceptor");
+		ReflectionUtils.makeAccessible(field);
+		var acceptor = (SocketAcceptor) ReflectionUtils.getField(field, this.nioListener);
+		Assert.notNull(acceptor, "the listener must have been started");
+		var sessionConfig = acceptor.getSessionConfig();
+		if (this.properties.getSendBufferSize() != null) {
+			sessionConfig.setSendBufferSize((int) this.properties.getSendBufferSize().toBytes());
+		}
+		if (this.properties.getReceiveBufferSize() != null) {
+			sessionConfig.setReceiveBufferSize((int) this.properties.getReceiveBufferSize().toBytes());
+		}
+		if (this.properties.getTcpNoDelay() != null) {
+			sessionConfig.setTcpNoDelay(this.properties.getTcpNoDelay());
+		}
+	}
+}
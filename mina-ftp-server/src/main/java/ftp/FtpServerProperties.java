@@ -0,0 +1,58 @@
+package ftp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+	* Sizing and socket settings for the embedded FTP server. Anything left unset keeps Apache FtpServer's default.
+	*/
+@Data
+@ConfigurationProperties("ftp.server")
+class FtpServerProperties {
+
+	/**
+		* Threads that run FTP commands. Zero lets the server pick. The NIO listener in FtpServer 1.1 always uses one I/O
+		* processor per core, so that count isn't configurable here.
+		*/
+	private int processingThreads = 0;
+
+	/**
+		* Logins allowed at once across all users.
+		*/
+	private int maxLogins = 10;
+
+	/**
+		* Connections allowed at once from a single client address. Zero means no limit.
+		*/
+	private int maxConnectionsPerIp = 0;
+
+	private int maxLoginFailures = 3;
+
+	private Duration idleTimeout = Duration.ofMinutes(5);
+
+	private Duration dataIdleTimeout = Duration.ofMinutes(5);
+
+	private DataSize sendBufferSize;
+
+	private DataSize receiveBufferSize;
+
+	private Boolean tcpNoDelay;
+
+	/**
+		* Files at least this big are read through memory-mapped windows. Unset serves every file with plain reads.
+		*/
+	private DataSize mappedReadThreshold;
+
+	/**
+		* Passive data ports, for example {@code 30000-30100}.
+		*/
+	private String passivePorts;
+
+	/**
+		* The address to advertise for passive connections when the server is behind NAT.
+		*/
+	private String passiveExternalAddress;
+}
@@ -3,31 +3,51 @@ package ftp;
 import org.apache.ftpserver.ftplet.Authority;
 import org.apache.ftpserver.ftplet.AuthorizationRequest;
 import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginRequest;
+import org.apache.ftpserver.usermanager.impl.TransferRateRequest;
+import org.apache.ftpserver.usermanager.impl.WriteRequest;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 class FtpUser implements User {
 
+	/**
+		* The requests the server makes on every login, write and transfer. Each one stands in for its class when the
+		* authorities that can handle it are worked out up front.
+		*/
+	private static final List<AuthorizationRequest> KNOWN_REQUESTS = List.of(
+		new WriteRequest(), new ConcurrentLoginRequest(0, 0), new TransferRateRequest());
+
 	private final String name, pw;
 	private final boolean enabled;
 	private final int maxIdleTime;
-	private final List<Authority> authorities = new ArrayList<>();
+	private final List<Authority> authorities;
 	private final File homeDirectory;
+	private final Authority[] allAuthorities;
+	private final Map<Class<?>, Authority[]> authoritiesByRequest;
+	private final Map<Class<?>, List<Authority>> authoritiesByType = new ConcurrentHashMap<>();
+	private final BandwidthLimits bandwidthLimits;
 
 	FtpUser(String name, String pw, boolean enabled, List<? extends Authority> auths, int maxIdleTime, File homeDirectory) {
+		this(name, pw, enabled, auths, maxIdleTime, homeDirectory, BandwidthLimits.UNLIMITED);
+	}
+
+	FtpUser(String name, String pw, boolean enabled, List<? extends Authority> auths, int maxIdleTime, File homeDirectory, BandwidthLimits bandwidthLimits) {
 		this.name = name;
+		this.bandwidthLimits = bandwidthLimits;
 		this.maxIdleTime = maxIdleTime == -1 ?
 			60_000 : maxIdleTime;
 		this.homeDirectory = homeDirectory;
 		this.pw = pw;
 		this.enabled = enabled;
-		if (auths != null) {
-			this.authorities.addAll(auths);
-		}
+		this.authorities = auths == null ? List.of() : List.copyOf(auths);
+		this.allAuthorities = this.authorities.toArray(Authority[]::new);
+		this.authoritiesByRequest = KNOWN_REQUESTS.stream().collect(Collectors.toUnmodifiableMap(Object::getClass,
+			request -> this.authorities.stream().filter(a -> a.canAuthorize(request)).toArray(Authority[]::new)));
 	}
 
 	@Override
@@ -47,18 +67,33 @@ class FtpUser implements User {
 
 	@Override
 	public List<? extends Authority> getAuthorities(Class<? extends Authority> aClass) {
-		return this.authorities.stream().filter(a -> a.getClass().isAssignableFrom(aClass)).collect(Collectors.toList());
+		var found = this.authoritiesByType.get(aClass);
+		if (found == null) {
+			found = this.authoritiesByType.computeIfAbsent(aClass,
+				type -> this.authorities.stream().filter(type::isInstance).collect(Collectors.toUnmodifiableList()));
+		}
+		return found;
 	}
 
+	/**
+		* Asks each authority that can handle the request in turn, without allocating.
+		*/
 	@Override
 	public AuthorizationRequest authorize(AuthorizationRequest req) {
-		return this.getAuthorities()
-			.stream()
-			.filter(a -> a.canAuthorize(req))
-			.map(a -> a.authorize(req))
-			.filter(Objects::nonNull)
-			.findFirst()
-			.orElse(null);
+		var candidates = this.authoritiesByRequest.getOrDefault(req.getClass(), this.allAuthorities);
+		for (var authority : candidates) {
+			if (authority.canAuthorize(req)) {
+				var authorized = authority.authorize(req);
+				if (authorized != null) {
+					return authorized;
+				}
+			}
+		}
+		return null;
+	}
+
+	BandwidthLimits getBandwidthLimits() {
+		return this.bandwidthLimits;
 	}
 
 	@Override
@@ -10,32 +10,54 @@ import org.apache.ftpserver.usermanager.impl.TransferRatePermission;
 import org.apache.ftpserver.usermanager.impl.WritePermission;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.util.Assert;
 
 import java.io.File;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Log4j2
 @RequiredArgsConstructor
 class FtpUserManager implements UserManager {
 
-	private final File root;
+	private final HomeShards homeShards;
 	private final JdbcTemplate jdbcTemplate;
+	private final UserCache userCache;
+	private final PasswordVerifier passwordVerifier;
 
 	// AUTHORITIES
 	private final List<Authority> adminAuthorities = List.of(new WritePermission());
 	private final List<Authority> anonAuthorities = List.of(
 		new ConcurrentLoginPermission(20, 2),
-		new TransferRatePermission(4800, 4800));
+		// transfers are shaped by the BandwidthShaper, from the limits in ftp_user
+		new TransferRatePermission(0, 0));
+	private final List<Authority> anonAndAdminAuthorities = Stream.concat(this.anonAuthorities.stream(), this.adminAuthorities.stream())
+		.collect(Collectors.toUnmodifiableList());
 
 	private final String insertSql = "insert into ftp_user (username, password, enabled, admin) values (?,?,?,?)";
 	private final String selectUsernamesSql = "select distinct username from ftp_user";
 	private final String deleteByNameSql = "delete from ftp_user where username = ? ";
 	private final String selectByNameSql = "select * from ftp_user where username = ?";
+	private final String selectUsernamesPageSql = "select distinct username from ftp_user where username > ? order by username limit ?";
+	private final String selectIdsByNamesSql = "select id from ftp_user where username in (:usernames)";
+	private final String selectUsernamesByIdsSql = "select id, username from ftp_user where id in (:ids)";
+	private final String updatePasswordSql = "update ftp_user set password = ? where username = ? and password = ?";
+	private final String selectPlainPasswordsSql = "select id, password from ftp_user where password not like '{%' order by id limit ?";
+	private final String updatePasswordByIdSql = "update ftp_user set password = ? where id = ? and password = ?";
+	private final String selectBandwidthLimitsByNamesSql = "select username, max_rate, max_session_rate from ftp_user where username in (:usernames)";
+
+	private final int provisioningBatchSize = 1_000;
 
 	private final RowMapper<String> usernameRowMapper = (resultSet, i) -> resultSet.getString("username");
 
@@ -48,23 +70,24 @@ class FtpUserManager implements UserManager {
 			String password = resultSet.getString("password");
 			boolean enabled = resultSet.getBoolean("enabled");
 			boolean admin = resultSet.getBoolean("admin");
-			int id = resultSet.getInt("id");
-			File home = new File(new File(root, Integer.toString(id)), "home");
-			Assert.isTrue(home.exists() || home.mkdirs(), "the home directory " + home.getAbsolutePath() + " must exist");
-			List<Authority> authorities = new ArrayList<>(anonAuthorities);
-			if (admin) {
-				authorities.addAll(adminAuthorities);
-			}
-			return new FtpUser(username, password, enabled, authorities, -1, home);
+			File home = createHomeDirectory(resultSet.getInt("id"));
+			var bandwidthLimits = new BandwidthLimits(resultSet.getLong("max_rate"), resultSet.getLong("max_session_rate"));
+			return new FtpUser(username, password, enabled, admin ? anonAndAdminAuthorities : anonAuthorities, -1, home, bandwidthLimits);
 		}
 	};
 
+	/**
+		* @return the user, or {@code null} if there is no user by this name. Both outcomes are cached.
+		*/
 	@Override
 	public User getUserByName(String name) {
+		return this.userCache.get(name, this::loadUserByName);
+	}
+
+	private User loadUserByName(String name) {
 		List<User> users = this.jdbcTemplate.query(this.selectByNameSql,
 			new Object[]{name}, this.userRowMapper);
-		Assert.isTrue(users.size() > 0, "there must be a user by this name");
-		return users.get(0);
+		return users.isEmpty() ? null : users.get(0);
 	}
 
 	@Override
@@ -73,16 +96,109 @@ class FtpUserManager implements UserManager {
 		return userNames.toArray(new String[0]);
 	}
 
+	/**
+		* Pages through the usernames in order, starting after the given name, without loading all of them at once.
+		*/
+	List<String> getUserNames(String after, int limit) {
+		return this.jdbcTemplate.query(this.selectUsernamesPageSql, new Object[]{after, limit}, this.usernameRowMapper);
+	}
+
+	Stream<String> streamUserNames(int pageSize) {
+		Assert.isTrue(pageSize > 0, "the page size must be positive");
+		return Stream
+			.iterate(this.getUserNames("", pageSize),
+				page -> !page.isEmpty(),
+				page -> page.size() < pageSize ? List.of() : this.getUserNames(page.get(page.size() - 1), pageSize))
+			.flatMap(List::stream);
+	}
+
+	/**
+		* Reads the current bandwidth limits of the given users straight from the database, bypassing the user cache.
+		*/
+	Map<String, BandwidthLimits> findBandwidthLimits(Collection<String> usernames) {
+		var limits = new HashMap<String, BandwidthLimits>();
+		var namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(this.jdbcTemplate);
+		var names = List.copyOf(usernames);
+		for (var i = 0; i < names.size(); i += this.provisioningBatchSize) {
+			var batch = names.subList(i, Math.min(i + this.provisioningBatchSize, names.size()));
+			namedParameterJdbcTemplate.query(this.selectBandwidthLimitsByNamesSql, Map.of("usernames", batch), resultSet -> {
+				limits.put(resultSet.getString("username"), new BandwidthLimits(resultSet.getLong("max_rate"), resultSet.getLong("max_session_rate")));
+			});
+		}
+		return limits;
+	}
+
+	/**
+		* Inserts many users with batched JDBC writes and then creates their home directories in parallel.
+		*
+		* @return the number of users inserted
+		*/
+	int provision(Collection<? extends User> users) {
+		var start = System.nanoTime();
+		// hashing is the slow part, so it's done in parallel ahead of the writes
+		var hashed = users.parallelStream()
+			.map(user -> Map.entry(user, this.passwordVerifier.encode(user.getPassword())))
+			.collect(Collectors.toList());
+		int[][] updates = this.jdbcTemplate.batchUpdate(this.insertSql, hashed, this.provisioningBatchSize, (ps, entry) -> {
+			var user = entry.getKey();
+			ps.setString(1, user.getName());
+			ps.setString(2, entry.getValue());
+			ps.setBoolean(3, user.getEnabled());
+			ps.setBoolean(4, this.hasAdminAuthorities(user));
+		});
+		var usernames = users.stream().map(User::getName).collect(Collectors.toList());
+		// the new users may be cached as unknown, here and on every other node, and one invalidation of everything is
+		// one message to the cluster where a name at a time would be as many as there are users
+		this.userCache.invalidateAll();
+		var namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(this.jdbcTemplate);
+		var ids = new ArrayList<Integer>();
+		for (var i = 0; i < usernames.size(); i += this.provisioningBatchSize) {
+			var batch = usernames.subList(i, Math.min(i + this.provisioningBatchSize, usernames.size()));
+			ids.addAll(namedParameterJdbcTemplate.queryForList(this.selectIdsByNamesSql, Map.of("usernames", batch), Integer.class));
+		}
+		ids.parallelStream().forEach(this::createHomeDirectory);
+		var inserted = Arrays.stream(updates).flatMapToInt(Arrays::stream).map(count -> count == Statement.SUCCESS_NO_INFO ? 1 : count).sum();
+		var seconds = Math.max(System.nanoTime() - start, 1) / 1_000_000_000.0;
+		log.info("provisioned " + inserted + " users in " + String.format("%.2f", seconds) + "s (" + Math.round(inserted / seconds) + " users/s)");
+		return inserted;
+	}
+
+	private File createHomeDirectory(int id) {
+		return this.homeShards.home(id);
+	}
+
+	/**
+		* @return the names of the users with the given ids, used to find the owners of the home directories on disk
+		*/
+	Map<Integer, String> findUserNames(Collection<Integer> ids) {
+		var names = new HashMap<Integer, String>();
+		var namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(this.jdbcTemplate);
+		var batches = List.copyOf(ids);
+		for (var i = 0; i < batches.size(); i += this.provisioningBatchSize) {
+			var batch = batches.subList(i, Math.min(i + this.provisioningBatchSize, batches.size()));
+			namedParameterJdbcTemplate.query(this.selectUsernamesByIdsSql, Map.of("ids", batch), resultSet -> {
+				names.put(resultSet.getInt("id"), resultSet.getString("username"));
+			});
+		}
+		return names;
+	}
+
+	private boolean hasAdminAuthorities(User user) {
+		return user.getAuthorities().equals(this.adminAuthorities);
+	}
+
 	@Override
 	public void delete(String name) {
 		int update = this.jdbcTemplate.update(this.deleteByNameSql, name);
+		this.userCache.invalidate(name);
 		Assert.isTrue(update > -1, "there must be some acknowledgment");
 	}
 
 	@Override
 	public void save(User user) throws FtpException {
 		int update = this.jdbcTemplate.update(this.insertSql,
-			user.getName(), user.getPassword(), user.getEnabled(), user.getAuthorities().equals(this.adminAuthorities));
+			user.getName(), this.passwordVerifier.encode(user.getPassword()), user.getEnabled(), this.hasAdminAuthorities(user));
+		this.userCache.invalidate(user.getName());
 		Assert.isTrue(update > 0, "there must be some acknowledgment of the write");
 	}
 
@@ -96,20 +212,57 @@ class FtpUserManager implements UserManager {
 		Assert.isTrue(authentication instanceof UsernamePasswordAuthentication, "the given authentication must support username and password authentication");
 		UsernamePasswordAuthentication upw = (UsernamePasswordAuthentication) authentication;
 		String user = upw.getUsername();
-		return Optional
+		var authenticated = Optional
 			.ofNullable(this.getUserByName(user))
-			.filter(u -> {
-				String incomingPw = u.getPassword();
-				return encode(incomingPw).equalsIgnoreCase(u.getPassword());
+			.filter(u -> this.passwordVerifier.matches(u.getName(), upw.getPassword(), u.getPassword()))
+			.map(u -> {
+				if (this.passwordVerifier.needsUpgrade(u.getPassword())) {
+					this.upgradePassword(u, upw.getPassword());
+				}
+				return u;
 			})
 			.orElseThrow(() -> new AuthenticationFailedException("Authentication has failed! Try your username and password."));
+		// the user cache still has the old home until the move is over
+		if (this.homeShards.isMoving(new File(authenticated.getHomeDirectory()))) {
+			throw new AuthenticationFailedException("The home directory is being moved, try again shortly.");
+		}
+		return authenticated;
+	}
+
+	/**
+		* Stores the password again with the configured algorithm, unless it was changed in the meantime.
+		*/
+	private void upgradePassword(User user, String password) {
+		if (this.jdbcTemplate.update(this.updatePasswordSql, this.passwordVerifier.encode(password), user.getName(), user.getPassword()) > 0) {
+			this.userCache.invalidate(user.getName());
+			log.info("upgraded the stored password of " + user.getName());
+		}
 	}
 
 	/**
-		* TODO do something more responsible than this!
+		* Hashes the passwords that are still stored as they are, a batch at a time. The rest, stored with an algorithm
+		* other than the configured one, can only be upgraded when their users next log in.
+		*
+		* @return the number of passwords hashed
 		*/
-	private String encode(String pw) {
-		return pw;
+	int hashPlainPasswords(int batchSize) {
+		var hashed = 0;
+		while (true) {
+			var rows = this.jdbcTemplate.queryForList(this.selectPlainPasswordsSql, batchSize);
+			var updates = rows.parallelStream()
+				.map(row -> new Object[]{this.passwordVerifier.encode((String) row.get("password")), row.get("id"), row.get("password")})
+				.collect(Collectors.toList());
+			var updated = Arrays.stream(this.jdbcTemplate.batchUpdate(this.updatePasswordByIdSql, updates)).map(count -> count == Statement.SUCCESS_NO_INFO ? 1 : count).sum();
+			hashed += updated;
+			if (rows.size() < batchSize || updated == 0) {
+				break;
+			}
+		}
+		if (hashed > 0) {
+			this.userCache.invalidateAll();
+			log.info("hashed " + hashed + " plain passwords");
+		}
+		return hashed;
 	}
 
 	@Override
@@ -0,0 +1,407 @@
+package ftp;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.util.Assert;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+	* Spreads the users' home directories over several roots (one per disk or volume, ideally) by consistent hashing of
+	* the user id, so that their I/O is spread over the disks too. Within a root each home lives at
+	* {@code <root>/<two hex digits>/<id>/home}, so that no one directory holds every user.
+	* <p>
+	* A home is always looked for where it is, not where it should be, so adding a root moves nothing straight away and
+	* {@link #rebalance} then moves the homes that belong on it a batch at a time, skipping the users who are logged in.
+	* Homes in the older flat layout, {@code <root>/<id>/home}, are found and moved the same way. While a home moves its
+	* user can't log in, see {@link #isMoving}.
+	* <p>
+	* The nodes of a cluster share the roots, so they're told of the roots added and the homes moving on the others with
+	* {@link #rootAdded} and {@link #markMoving}, and only one of them rebalances at a time.
+	*/
+@Log4j2
+class HomeShards implements MeterBinder {
+
+	private final int virtualNodes;
+	private final List<Shard> shards = new CopyOnWriteArrayList<>();
+	private final LongAdder moves = new LongAdder();
+	private final Set<File> moving = ConcurrentHashMap.newKeySet();
+	private volatile TreeMap<Long, Shard> ring = new TreeMap<>();
+	private volatile int cursor = -1;
+	private volatile Consumer<File> onRootAdded = root -> {
+	};
+	private volatile BiConsumer<File, Boolean> onMoving = (home, moving) -> {
+	};
+	private volatile MeterRegistry registry;
+
+	private HomeShards(int virtualNodes) {
+		Assert.isTrue(virtualNodes > 0, "there must be at least one virtual node per root");
+		this.virtualNodes = virtualNodes;
+	}
+
+	static HomeShards of(List<File> roots, int virtualNodes) {
+		Assert.notEmpty(roots, "there must be at least one root");
+		var homeShards = new HomeShards(virtualNodes);
+		roots.forEach(homeShards::addRoot);
+		return homeShards;
+	}
+
+	/**
+		* @return the home of the user, where it already is or else where it belongs, created if need be
+		*/
+	File home(int id) {
+		var target = this.shardFor(id).home(id);
+		if (target.exists()) {
+			return target;
+		}
+		var found = this.find(id);
+		if (found != null) {
+			return found;
+		}
+		Assert.isTrue(target.mkdirs() || target.exists(), "the home directory " + target.getAbsolutePath() + " must exist");
+		return target;
+	}
+
+	/**
+		* @return the shard that holds the given home, or {@code null} if it isn't under any of the roots
+		*/
+	Shard shardOf(File home) {
+		var path = home.getAbsoluteFile().toPath();
+		for (var shard : this.shards) {
+			if (path.startsWith(shard.root.toPath())) {
+				return shard;
+			}
+		}
+		return null;
+	}
+
+	/**
+		* Adds a root to the ring. The homes that now belong on it stay where they are until they are
+		* {@link #rebalance rebalanced}.
+		*/
+	synchronized void addRoot(File root) {
+		var absolute = root.getAbsoluteFile();
+		Assert.isTrue(this.shards.stream().noneMatch(shard -> shard.root.equals(absolute)), absolute + " is already a root");
+		this.add(absolute);
+		this.onRootAdded.accept(absolute);
+	}
+
+	/**
+		* Adds a root that was added on another node, unless it's already one here, without passing it on.
+		*/
+	synchronized void rootAdded(File root) {
+		var absolute = root.getAbsoluteFile();
+		if (this.shards.stream().noneMatch(shard -> shard.root.equals(absolute))) {
+			this.add(absolute);
+		}
+	}
+
+	private void add(File absolute) {
+		Assert.isTrue(absolute.exists() || absolute.mkdirs(), "the root " + absolute + " must exist");
+		var shard = new Shard(absolute);
+		var ring = new TreeMap<>(this.ring);
+		for (var node = 0; node < this.virtualNodes; node++) {
+			ring.put(mix(absolute.getPath().hashCode() * 0x9E3779B97F4A7C15L + node), shard);
+		}
+		this.shards.add(shard);
+		this.ring = ring;
+		if (this.registry != null) {
+			this.bind(this.registry, shard);
+		}
+		log.info("added the root " + absolute + ", there are now " + this.shards.size());
+	}
+
+	/**
+		* @return the ids of up to {@code limit} users whose homes aren't on the shard the ring puts them on, in the order of
+		* their ids from just after the last one {@link #rebalance} tried, so that homes left behind because they were in
+		* use come after all the others and don't fill every batch
+		*/
+	List<Integer> misplaced(int limit) {
+		var ids = new TreeSet<Integer>();
+		for (var shard : this.shards) {
+			for (var misplaced : shard.misplaced(this)) {
+				ids.add(misplaced.getKey());
+			}
+		}
+		var after = this.cursor;
+		return Stream.concat(ids.tailSet(after, false).stream(), ids.headSet(after, true).stream())
+			.limit(limit)
+			.collect(Collectors.toList());
+	}
+
+	/**
+		* Moves the homes of the given users, from {@link #misplaced}, to the shards the ring puts them on.
+		*
+		* @param inUse whether the user with the given id is logged in, in which case their home is left where it is. It's
+		*              asked again before the original of a copied home is deleted.
+		* @param moved called with the id of every user whose home was moved, before they can log in again
+		* @return the number of homes moved
+		*/
+	int rebalance(List<Integer> ids, IntPredicate inUse, IntConsumer moved) {
+		var count = 0;
+		for (var id : ids) {
+			this.cursor = id;
+			var from = this.find(id);
+			var to = this.shardFor(id).home(id);
+			if (from == null || from.equals(to)) {
+				continue;
+			}
+			// turned away from now on, here and, once the listener returns, on the other nodes, so a login that got in
+			// first is the only one the check below has to see
+			this.moving.add(from);
+			try {
+				this.onMoving.accept(from, true);
+				if (inUse.test(id)) {
+					continue;
+				}
+				if (this.move(from, to, () -> inUse.test(id))) {
+					count++;
+					this.moves.increment();
+					moved.accept(id);
+				}
+			}
+			catch (IOException e) {
+				log.warn("could not move the home of " + id + ": " + e.getMessage());
+			}
+			finally {
+				this.moving.remove(from);
+				this.onMoving.accept(from, false);
+			}
+		}
+		return count;
+	}
+
+	/**
+		* @return whether the home is being moved, in which case its user mustn't log in until it has been
+		*/
+	boolean isMoving(File home) {
+		return !this.moving.isEmpty() && this.moving.contains(home.getAbsoluteFile());
+	}
+
+	/**
+		* Marks a home that another node has started or stopped moving, without passing it on.
+		*/
+	void markMoving(File home, boolean moving) {
+		if (moving) {
+			this.moving.add(home.getAbsoluteFile());
+		}
+		else {
+			this.moving.remove(home.getAbsoluteFile());
+		}
+	}
+
+	/**
+		* Passes on every root added with {@link #addRoot}, so that the other nodes of a cluster can add it too.
+		*/
+	void onRootAdded(Consumer<File> onRootAdded) {
+		this.onRootAdded = onRootAdded;
+	}
+
+	/**
+		* Passes on every home as {@link #rebalance} starts and stops moving it. The home is only checked for logins, and
+		* moved, once the listener has returned from its start, so that it can wait for the other nodes to turn its user
+		* away as well.
+		*/
+	void onMoving(BiConsumer<File, Boolean> onMoving) {
+		this.onMoving = onMoving;
+	}
+
+	private File find(int id) {
+		for (var shard : this.shards) {
+			for (var candidate : new File[]{shard.home(id), shard.legacyHome(id)}) {
+				if (candidate.exists()) {
+					return candidate;
+				}
+			}
+		}
+		return null;
+	}
+
+	List<Shard> shards() {
+		return List.copyOf(this.shards);
+	}
+
+	Shard shardFor(int id) {
+		var ring = this.ring;
+		var entry = ring.ceilingEntry(mix(id));
+		return (entry == null ? ring.firstEntry() : entry).getValue();
+	}
+
+	/**
+		* Copies the home next to where it goes and renames it into place, so that it never appears there half copied, and
+		* only then deletes the original. If the user logged in while it was being copied, the copy is dropped instead and
+		* the original kept, since whatever they write goes there.
+		*/
+	private boolean move(File from, File to, BooleanSupplier inUse) throws IOException {
+		if (to.exists()) {
+			log.warn("not moving " + from + " because " + to + " already exists");
+			return false;
+		}
+		Assert.isTrue(to.getParentFile().exists() || to.getParentFile().mkdirs(), "the directory " + to.getParent() + " must exist");
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			var copy = new File(to.getParentFile(), to.getName() + ".moving");
+			FileSystemUtils.deleteRecursively(copy);
+			FileSystemUtils.copyRecursively(from, copy);
+			if (inUse.getAsBoolean()) {
+				FileSystemUtils.deleteRecursively(copy);
+				log.info("not moving " + from + " because its user logged in while it was copied");
+				return false;
+			}
+			Files.move(copy.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			FileSystemUtils.deleteRecursively(from);
+		}
+		// leaves no empty <root>/<id> or <root>/<bucket>/<id> behind
+		from.getParentFile().delete();
+		log.debug("moved {} to {}", from, to);
+		return true;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.registry = registry;
+		this.shards.forEach(shard -> this.bind(registry, shard));
+		FunctionCounter.builder("ftp.storage.moves", this.moves, LongAdder::sum).register(registry);
+	}
+
+	private void bind(MeterRegistry registry, Shard shard) {
+		var root = shard.root.getPath();
+		FunctionCounter.builder("ftp.storage.bytes", shard.read, LongAdder::sum).baseUnit("bytes").tag("shard", root).tag("direction", "read").register(registry);
+		FunctionCounter.builder("ftp.storage.bytes", shard.written, LongAdder::sum).baseUnit("bytes").tag("shard", root).tag("direction", "written").register(registry);
+		Gauge.builder("ftp.storage.usable", shard.root, File::getUsableSpace).baseUnit("bytes").tag("shard", root).register(registry);
+	}
+
+	/**
+		* 64-bit finalizer from SplitMix64, so that neighbouring ids and roots land far apart on the ring.
+		*/
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+		* One root, and the bytes read from and written to the homes on it.
+		*/
+	@Getter
+	static class Shard {
+
+		private final File root;
+		private final LongAdder read = new LongAdder();
+		private final LongAdder written = new LongAdder();
+
+		Shard(File root) {
+			this.root = root;
+		}
+
+		File home(int id) {
+			return new File(new File(new File(this.root, String.format("%02x", id & 0xff)), Integer.toString(id)), "home");
+		}
+
+		File legacyHome(int id) {
+			return new File(new File(this.root, Integer.toString(id)), "home");
+		}
+
+		InputStream count(InputStream in) {
+			return new FilterInputStream(in) {
+
+				@Override
+				public int read() throws IOException {
+					var b = super.read();
+					if (b != -1) {
+						Shard.this.read.increment();
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] bytes, int offset, int length) throws IOException {
+					var read = super.read(bytes, offset, length);
+					if (read > 0) {
+						Shard.this.read.add(read);
+					}
+					return read;
+				}
+			};
+		}
+
+		OutputStream count(OutputStream out) {
+			return new FilterOutputStream(out) {
+
+				@Override
+				public void write(int b) throws IOException {
+					this.out.write(b);
+					Shard.this.written.increment();
+				}
+
+				@Override
+				public void write(byte[] bytes, int offset, int length) throws IOException {
+					this.out.write(bytes, offset, length);
+					Shard.this.written.add(length);
+				}
+			};
+		}
+
+		/**
+			* @return the homes on this root, by user id, that belong on another shard or are in the legacy layout
+			*/
+		private List<Map.Entry<Integer, File>> misplaced(HomeShards homeShards) {
+			var misplaced = new ArrayList<Map.Entry<Integer, File>>();
+			var children = this.root.listFiles(File::isDirectory);
+			if (children == null) {
+				return misplaced;
+			}
+			for (var child : children) {
+				// the buckets from 00 to 99 look like legacy ids by name, and one can be both: only a legacy id holds a home,
+				// and only a bucket holds ids
+				if (child.getName().matches("\\d+") && new File(child, "home").isDirectory()) {
+					var id = Integer.parseInt(child.getName());
+					misplaced.add(Map.entry(id, this.legacyHome(id)));
+				}
+				if (child.getName().matches("[0-9a-f]{2}")) {
+					var homes = child.listFiles(File::isDirectory);
+					for (var home : homes == null ? new File[0] : homes) {
+						if (home.getName().matches("\\d+")) {
+							var id = Integer.parseInt(home.getName());
+							if (homeShards.shardFor(id) != this) {
+								misplaced.add(Map.entry(id, this.home(id)));
+							}
+						}
+					}
+				}
+			}
+			return misplaced;
+		}
+	}
+}
@@ -1,8 +1,11 @@
 package ftp;
 
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.integration.channel.QueueChannel;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.IntegrationFlows;
 import org.springframework.integration.dsl.MessageChannels;
@@ -12,8 +15,18 @@ import org.springframework.integration.ftp.server.ApacheMinaFtplet;
 import org.springframework.integration.handler.GenericHandler;
 import org.springframework.messaging.MessageChannel;
 
+import java.time.Duration;
+import java.util.List;
+
+/**
+	* Mina publishes its events on the I/O thread of the FTP session, so they're queued in a bounded channel and
+	* delivered to the subscribers of {@link #eventBatches()} in batches, from another thread. When the queue is full an
+	* event is either dropped straight away or, with {@code ftp.events.overflow=block}, after waiting for room. The flows
+	* are created at the start even in the {@code fast-start} profile, or nothing would subscribe to the events.
+	*/
 @Log4j2
 @Configuration
+@Lazy(false)
 class IntegrationConfiguration {
 
 	@Bean
@@ -22,25 +35,73 @@ class IntegrationConfiguration {
 	}
 
 	@Bean
-	MessageChannel eventsChannel() {
+	QueueChannel eventsChannel(@Value("${ftp.events.capacity:10000}") int capacity) {
+		return MessageChannels.queue(capacity).get();
+	}
+
+	@Bean
+	MessageChannel eventBatches() {
+		return MessageChannels.publishSubscribe().get();
+	}
+
+	@Bean
+	MessageChannel droppedEvents() {
 		return MessageChannels.direct().get();
 	}
 
 	@Bean
-	IntegrationFlow integrationFlow() {
-		return IntegrationFlows.from(this.eventsChannel())
-			.handle((GenericHandler<ApacheMinaFtpEvent>) (apacheMinaFtpEvent, messageHeaders) -> {
-				log.info("new event: " + apacheMinaFtpEvent.getClass().getName() + ':' + apacheMinaFtpEvent.getSession());
+	EventPipelineMetrics eventPipelineMetrics(QueueChannel eventsChannel) {
+		return new EventPipelineMetrics(eventsChannel);
+	}
+
+	@Bean
+	IntegrationFlow eventBatching(
+		QueueChannel eventsChannel,
+		@Value("${ftp.events.batch-size:100}") int batchSize,
+		@Value("${ftp.events.flush-interval:10ms}") Duration flushInterval) {
+		return IntegrationFlows.from(eventsChannel)
+			.aggregate(a -> a
+				.poller(p -> p.fixedDelay(1).maxMessagesPerPoll(batchSize).receiveTimeout(flushInterval.toMillis()))
+				.correlationExpression("'events'")
+				.releaseStrategy(group -> group.size() >= batchSize)
+				.groupTimeout(flushInterval.toMillis())
+				.sendPartialResultOnExpiry(true)
+				.expireGroupsUponCompletion(true)
+				.expireGroupsUponTimeout(true))
+			.channel(this.eventBatches())
+			.get();
+	}
+
+	@Bean
+	IntegrationFlow integrationFlow(EventPipelineMetrics eventPipelineMetrics) {
+		return IntegrationFlows.from(this.eventBatches())
+			.handle((GenericHandler<List<ApacheMinaFtpEvent>>) (apacheMinaFtpEvents, messageHeaders) -> {
+				for (var apacheMinaFtpEvent : apacheMinaFtpEvents) {
+					eventPipelineMetrics.delivered(apacheMinaFtpEvent);
+					log.debug("new event: {}:{}", apacheMinaFtpEvent.getClass().getName(), apacheMinaFtpEvent.getSession());
+				}
 				return null;
 			})
 			.get();
 	}
 
 	@Bean
-	ApplicationEventListeningMessageProducer applicationEventListeningMessageProducer() {
+	IntegrationFlow droppedEventsFlow(EventPipelineMetrics eventPipelineMetrics) {
+		return IntegrationFlows.from(this.droppedEvents())
+			.handle(message -> eventPipelineMetrics.drop())
+			.get();
+	}
+
+	@Bean
+	ApplicationEventListeningMessageProducer applicationEventListeningMessageProducer(
+		QueueChannel eventsChannel,
+		@Value("${ftp.events.overflow:drop}") String overflow,
+		@Value("${ftp.events.block-timeout:1s}") Duration blockTimeout) {
 		var producer = new ApplicationEventListeningMessageProducer();
 		producer.setEventTypes(ApacheMinaFtpEvent.class);
-		producer.setOutputChannel(eventsChannel());
+		producer.setOutputChannel(eventsChannel);
+		producer.setSendTimeout(overflow.equalsIgnoreCase("block") ? blockTimeout.toMillis() : 0);
+		producer.setErrorChannel(this.droppedEvents());
 		return producer;
 	}
 }
@@ -0,0 +1,58 @@
+package ftp;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+
+/**
+	* A {@link FileSystemView} over the native one whose large files are read through memory-mapped regions and whose
+	* hot files are served from the {@link FileContentCache}. Transfers are shaped by the session's bandwidth, if it has
+	* one, and counted against the shard the user's home is on, if there is more than one.
+	*/
+@RequiredArgsConstructor
+class MappedFileSystemView implements FileSystemView {
+
+	private final FileSystemView delegate;
+	private final long mappedReadThreshold;
+	private final FileContentCache contentCache;
+	private final BandwidthShaper.Session bandwidth;
+	private final HomeShards.Shard shard;
+
+	@Override
+	public FtpFile getHomeDirectory() throws FtpException {
+		return this.wrap(this.delegate.getHomeDirectory());
+	}
+
+	@Override
+	public FtpFile getWorkingDirectory() throws FtpException {
+		return this.wrap(this.delegate.getWorkingDirectory());
+	}
+
+	@Override
+	public boolean changeWorkingDirectory(String dir) throws FtpException {
+		return this.delegate.changeWorkingDirectory(dir);
+	}
+
+	@Override
+	public FtpFile getFile(String file) throws FtpException {
+		return this.wrap(this.delegate.getFile(file));
+	}
+
+	@Override
+	public boolean isRandomAccessible() throws FtpException {
+		return this.delegate.isRandomAccessible();
+	}
+
+	@Override
+	public void dispose() {
+		if (this.bandwidth != null) {
+			this.bandwidth.close();
+		}
+		this.delegate.dispose();
+	}
+
+	private FtpFile wrap(FtpFile file) {
+		return file == null ? null : new MappedFtpFile(file, this.mappedReadThreshold, this.contentCache, this.bandwidth, this.shard);
+	}
+}
@@ -0,0 +1,256 @@
+package ftp;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.ftpserver.ftplet.FtpFile;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+	* Serves files of at least {@code mappedReadThreshold} bytes from memory-mapped windows of the page cache instead of
+	* with a {@code read} call per buffer, and cacheable files from the {@link FileContentCache}. Everything else is left
+	* to the native file. The bytes read and written are counted against the file's {@link HomeShards.Shard}, if it has
+	* one.
+	*/
+@RequiredArgsConstructor
+class MappedFtpFile implements FtpFile {
+
+	private static final long WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final FtpFile delegate;
+	private final long mappedReadThreshold;
+	private final FileContentCache contentCache;
+	private final BandwidthShaper.Session bandwidth;
+	private final HomeShards.Shard shard;
+
+	@Override
+	public InputStream createInputStream(long offset) throws IOException {
+		var in = this.shard == null ? this.open(offset) : this.shard.count(this.open(offset));
+		return this.bandwidth == null ? in : this.bandwidth.shape(in);
+	}
+
+	private InputStream open(long offset) throws IOException {
+		var file = (File) this.delegate.getPhysicalFile();
+		if (!this.delegate.isReadable()) {
+			return this.delegate.createInputStream(offset);
+		}
+		var cached = this.contentCache.open(file, offset);
+		if (cached != null) {
+			return cached;
+		}
+		if (file.length() - offset < this.mappedReadThreshold) {
+			return this.delegate.createInputStream(offset);
+		}
+		return new MappedInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ), offset);
+	}
+
+	@Override
+	public OutputStream createOutputStream(long offset) throws IOException {
+		var file = (File) this.delegate.getPhysicalFile();
+		this.contentCache.invalidate(file);
+		var out = this.shard == null ? this.delegate.createOutputStream(offset) : this.shard.count(this.delegate.createOutputStream(offset));
+		out = this.bandwidth == null ? out : this.bandwidth.shape(out);
+		// a download that starts while the upload is still running may cache the partial file
+		return new FilterOutputStream(out) {
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				this.out.write(bytes, offset, length);
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				}
+				finally {
+					MappedFtpFile.this.contentCache.invalidate(file);
+				}
+			}
+		};
+	}
+
+	@Override
+	public boolean move(FtpFile destination) {
+		// the native file casts its destination to its own type
+		var target = destination instanceof MappedFtpFile ? ((MappedFtpFile) destination).delegate : destination;
+		this.contentCache.invalidate((File) this.delegate.getPhysicalFile());
+		this.contentCache.invalidate((File) target.getPhysicalFile());
+		return this.delegate.move(target);
+	}
+
+	@Override
+	public List<? extends FtpFile> listFiles() {
+		var files = this.delegate.listFiles();
+		return files == null ? null : files.stream().map(file -> new MappedFtpFile(file, this.mappedReadThreshold, this.contentCache, this.bandwidth, this.shard)).collect(Collectors.toList());
+	}
+
+	@Override
+	public String getAbsolutePath() {
+		return this.delegate.getAbsolutePath();
+	}
+
+	@Override
+	public String getName() {
+		return this.delegate.getName();
+	}
+
+	@Override
+	public boolean isHidden() {
+		return this.delegate.isHidden();
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return this.delegate.isDirectory();
+	}
+
+	@Override
+	public boolean isFile() {
+		return this.delegate.isFile();
+	}
+
+	@Override
+	public boolean doesExist() {
+		return this.delegate.doesExist();
+	}
+
+	@Override
+	public boolean isReadable() {
+		return this.delegate.isReadable();
+	}
+
+	@Override
+	public boolean isWritable() {
+		return this.delegate.isWritable();
+	}
+
+	@Override
+	public boolean isRemovable() {
+		return this.delegate.isRemovable();
+	}
+
+	@Override
+	public String getOwnerName() {
+		return this.delegate.getOwnerName();
+	}
+
+	@Override
+	public String getGroupName() {
+		return this.delegate.getGroupName();
+	}
+
+	@Override
+	public int getLinkCount() {
+		return this.delegate.getLinkCount();
+	}
+
+	@Override
+	public long getLastModified() {
+		return this.delegate.getLastModified();
+	}
+
+	@Override
+	public boolean setLastModified(long time) {
+		return this.delegate.setLastModified(time);
+	}
+
+	@Override
+	public long getSize() {
+		return this.delegate.getSize();
+	}
+
+	@Override
+	public Object getPhysicalFile() {
+		return this.delegate.getPhysicalFile();
+	}
+
+	@Override
+	public boolean mkdir() {
+		return this.delegate.mkdir();
+	}
+
+	@Override
+	public boolean delete() {
+		this.contentCache.invalidate((File) this.delegate.getPhysicalFile());
+		return this.delegate.delete();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof MappedFtpFile && this.delegate.equals(((MappedFtpFile) other).delegate);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.delegate.hashCode();
+	}
+
+	/**
+		* Reads a file one mapped window at a time. The windows are unmapped when they're garbage collected, so they're
+		* kept large to keep the number of live mappings small.
+		*/
+	private static class MappedInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private final long size;
+		private long position;
+		private MappedByteBuffer window;
+
+		MappedInputStream(FileChannel channel, long offset) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			this.position = offset;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return this.next() ? this.window.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (!this.next()) {
+				return -1;
+			}
+			var read = Math.min(length, this.window.remaining());
+			this.window.get(bytes, offset, read);
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return this.window == null ? 0 : this.window.remaining();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.window = null;
+			this.channel.close();
+		}
+
+		private boolean next() throws IOException {
+			if (this.window != null && this.window.hasRemaining()) {
+				return true;
+			}
+			if (this.position >= this.size) {
+				return false;
+			}
+			var length = Math.min(WINDOW_SIZE, this.size - this.position);
+			this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.position, length);
+			this.position += length;
+			return true;
+		}
+	}
+}
@@ -1,14 +1,20 @@
 package ftp;
 
 import org.springframework.boot.SpringApplication;
-import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Import;
 
-@SpringBootApplication
+/**
+	* The configurations are listed here rather than found by scanning the classpath, which takes part of the start and
+	* leaves nothing to be discovered at run time, for an ahead-of-time build or a class data sharing archive.
+	*/
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@Import({FtpServerConfiguration.class, IntegrationConfiguration.class, NotificationConfiguration.class, ClusterConfiguration.class})
 public class MinaFtpServerApplication {
 
 	public static void main(String[] args) {
 		SpringApplication.run(MinaFtpServerApplication.class, args);
 	}
 }
-
-
@@ -0,0 +1,75 @@
+package ftp;
+
+import lombok.SneakyThrows;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.HttpMethod;
+import org.springframework.integration.dsl.IntegrationFlow;
+import org.springframework.integration.dsl.IntegrationFlows;
+import org.springframework.integration.dsl.MessageChannels;
+import org.springframework.integration.ftp.server.FileWrittenEvent;
+import org.springframework.integration.http.dsl.Http;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+	* Tells a client about every completed upload by posting the user and the path of the file to
+	* {@code ftp.notifications.url}, so the client doesn't have to wait for its next poll to see it. Both are taken on the
+	* session's I/O thread when the upload finishes, since by the time the notification is sent the client may have
+	* changed directory or gone, and only they are queued, not the session.
+	*/
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty("ftp.notifications.url")
+@Lazy(false)
+class NotificationConfiguration {
+
+	@Bean
+	ThreadPoolTaskExecutor notificationExecutor(@Value("${ftp.notifications.queue-capacity:10000}") int queueCapacity) {
+		var executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(2);
+		executor.setMaxPoolSize(2);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("notifications-");
+		// a client that misses a notification still finds the file on its next poll
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+		return executor;
+	}
+
+	@Bean
+	MessageChannel notifications(ThreadPoolTaskExecutor notificationExecutor) {
+		return MessageChannels.executor(notificationExecutor).get();
+	}
+
+	@Bean
+	ApplicationListener<FileWrittenEvent> notifiesUploads(MessageChannel notifications) {
+		return event -> notifications.send(MessageBuilder.withPayload(this.notification(event)).build());
+	}
+
+	@Bean
+	IntegrationFlow notificationFlow(MessageChannel notifications, @Value("${ftp.notifications.url}") String url) {
+		return IntegrationFlows.from(notifications)
+			.handle(Http
+				.outboundChannelAdapter(url)
+				.httpMethod(HttpMethod.POST))
+			.get();
+	}
+
+	@SneakyThrows
+	private MultiValueMap<String, String> notification(FileWrittenEvent event) {
+		var session = event.getSession();
+		var file = session.getFileSystemView().getFile(event.getRequest().getArgument());
+		var notification = new LinkedMultiValueMap<String, String>();
+		notification.add("user", session.getUser().getName());
+		notification.add("path", file.getAbsolutePath());
+		return notification;
+	}
+}
@@ -0,0 +1,139 @@
+package ftp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+import org.springframework.util.Assert;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+	* Checks passwords against the hashes in {@code ftp_user.password}, which carry the id of their algorithm as a prefix,
+	* like {@code {bcrypt}$2a$10$...}. Rows from before passwords were hashed hold the password itself, without a prefix:
+	* they still match, and {@link #needsUpgrade} says they should be stored again with the configured algorithm.
+	* <p>
+	* Hashing is slow on purpose, so each successful check is remembered for a short while. The cache key is an HMAC of
+	* the username, the password and the stored hash. The HMAC key is random for each process and never leaves it. So
+	* the cache holds no passwords, and nothing that can be checked against a guess without that key. Because the stored
+	* hash is part of the key, a changed password misses the cache.
+	*/
+class PasswordVerifier {
+
+	private static final String HMAC = "HmacSHA256";
+
+	/**
+		* Compares the password itself, in constant time, for the rows that predate hashing.
+		*/
+	private static final PasswordEncoder PLAIN = new PasswordEncoder() {
+
+		@Override
+		public String encode(CharSequence rawPassword) {
+			return rawPassword.toString();
+		}
+
+		@Override
+		public boolean matches(CharSequence rawPassword, String encodedPassword) {
+			return MessageDigest.isEqual(rawPassword.toString().getBytes(StandardCharsets.UTF_8), encodedPassword.getBytes(StandardCharsets.UTF_8));
+		}
+	};
+
+	private final DelegatingPasswordEncoder encoder;
+	private final Cache<String, Boolean> verified;
+	private final ThreadLocal<Mac> macs;
+
+	private PasswordVerifier(DelegatingPasswordEncoder encoder, Cache<String, Boolean> verified) {
+		this.encoder = encoder;
+		this.verified = verified;
+		var key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		var keySpec = new SecretKeySpec(key, HMAC);
+		this.macs = ThreadLocal.withInitial(() -> {
+			try {
+				var mac = Mac.getInstance(HMAC);
+				mac.init(keySpec);
+				return mac;
+			}
+			catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	/**
+		* @param algorithm   {@code bcrypt}, {@code pbkdf2} or {@code argon2}, used for new and upgraded passwords. All three
+		*                    are always accepted when checking a password.
+		* @param maximumSize the number of verifications to remember, or {@code 0} for none
+		*/
+	static PasswordVerifier of(String algorithm, int bcryptStrength, long maximumSize, Duration ttl) {
+		var encoders = Map.<String, PasswordEncoder>of(
+			"bcrypt", new BCryptPasswordEncoder(bcryptStrength),
+			"pbkdf2", new Pbkdf2PasswordEncoder(),
+			"argon2", new Argon2PasswordEncoder());
+		Assert.isTrue(encoders.containsKey(algorithm), "the password algorithm must be one of " + encoders.keySet());
+		var encoder = new DelegatingPasswordEncoder(algorithm, encoders);
+		encoder.setDefaultPasswordEncoderForMatches(PLAIN);
+		var verified = maximumSize > 0 ? Caffeine.newBuilder()
+			.maximumSize(maximumSize)
+			.expireAfterWrite(ttl)
+			.recordStats()
+			.<String, Boolean>build() : null;
+		return new PasswordVerifier(encoder, verified);
+	}
+
+	boolean matches(String username, String password, String stored) {
+		if (password == null || stored == null) {
+			return false;
+		}
+		if (this.verified == null) {
+			return this.encoder.matches(password, stored);
+		}
+		var key = this.key(username, password, stored);
+		if (this.verified.getIfPresent(key) != null) {
+			return true;
+		}
+		// failures aren't remembered, so a wrong guess always costs the full hash
+		var matches = this.encoder.matches(password, stored);
+		if (matches) {
+			this.verified.put(key, Boolean.TRUE);
+		}
+		return matches;
+	}
+
+	String encode(String password) {
+		return this.encoder.encode(password);
+	}
+
+	/**
+		* @return whether the stored password is plain, or hashed with another algorithm or weaker settings than configured
+		*/
+	boolean needsUpgrade(String stored) {
+		return this.encoder.upgradeEncoding(stored);
+	}
+
+	CacheStats stats() {
+		return this.verified == null ? CacheStats.empty() : this.verified.stats();
+	}
+
+	private String key(String username, String password, String stored) {
+		var mac = this.macs.get();
+		for (var part : new String[]{username, password, stored}) {
+			mac.update(part.getBytes(StandardCharsets.UTF_8));
+			// a separator that can't be in a string, so that no two triples run together the same way
+			mac.update((byte) 0xff);
+		}
+		return Base64.getEncoder().encodeToString(mac.doFinal());
+	}
+}
@@ -0,0 +1,40 @@
+package ftp;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+	* Lists the roots the homes are sharded over at {@code /actuator/storage}, and adds one with a {@code POST} of
+	* {@code {"root": "/mnt/disk3/ftp"}}. In a cluster the root is added on every node, through
+	* {@link ClusterInvalidations}.
+	*/
+@Endpoint(id = "storage")
+@RequiredArgsConstructor
+class StorageEndpoint {
+
+	private final HomeShards homeShards;
+
+	@ReadOperation
+	List<Map<String, Object>> shards() {
+		return this.homeShards.shards().stream()
+			.map(shard -> Map.<String, Object>of(
+				"root", shard.getRoot().getPath(),
+				"usable", shard.getRoot().getUsableSpace(),
+				"read", shard.getRead().sum(),
+				"written", shard.getWritten().sum()))
+			.collect(Collectors.toList());
+	}
+
+	@WriteOperation
+	List<Map<String, Object>> addRoot(String root) {
+		this.homeShards.addRoot(new File(root));
+		return this.shards();
+	}
+}
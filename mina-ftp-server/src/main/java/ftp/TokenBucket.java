@@ -0,0 +1,59 @@
+package ftp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+	* A token bucket of bytes per second that can be nested under a parent, so that a transfer has to get past its own
+	* limit and then every limit above it. A caller that takes more tokens than are left puts the bucket into debt and
+	* sleeps it off, so callers are served in the order they arrived and a bulk transfer can't jump the queue. A rate of
+	* zero or less means no limit, and the rate can be changed while transfers are running.
+	*/
+class TokenBucket {
+
+	private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+	private final TokenBucket parent;
+	private volatile long rate;
+	private double available;
+	private long refilledAt = System.nanoTime();
+
+	TokenBucket(TokenBucket parent, long rate) {
+		this.parent = parent;
+		this.rate = rate;
+		this.available = Math.max(rate, 0);
+	}
+
+	void setRate(long rate) {
+		this.rate = rate;
+	}
+
+	long getRate() {
+		return this.rate;
+	}
+
+	void acquire(long bytes) throws InterruptedException {
+		var wait = this.reserve(bytes);
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+		if (this.parent != null) {
+			this.parent.acquire(bytes);
+		}
+	}
+
+	/**
+		* @return how long the caller has to wait, in nanoseconds, for the bytes it has taken
+		*/
+	private synchronized long reserve(long bytes) {
+		var rate = this.rate;
+		if (rate <= 0) {
+			return 0;
+		}
+		var now = System.nanoTime();
+		// no more than a second's worth of tokens builds up while nobody is transferring
+		this.available = Math.min(rate, this.available + (now - this.refilledAt) / NANOS_PER_SECOND * rate);
+		this.refilledAt = now;
+		this.available -= bytes;
+		return this.available >= 0 ? 0 : (long) (-this.available / rate * NANOS_PER_SECOND);
+	}
+}
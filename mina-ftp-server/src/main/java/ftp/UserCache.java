@@ -0,0 +1,86 @@
+package ftp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.apache.ftpserver.ftplet.User;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+	* Bounded, TTL-evicting cache of {@link User users} keyed by username. Unknown users are
+	* cached too (as empty entries) so that repeated logins for a bad username don't hit the database.
+	*/
+class UserCache {
+
+	private final Cache<String, Optional<User>> cache;
+	private volatile Consumer<String> invalidations = username -> {
+	};
+
+	private UserCache(Cache<String, Optional<User>> cache) {
+		this.cache = cache;
+	}
+
+	static UserCache of(long maximumSize, Duration ttl) {
+		return new UserCache(Caffeine.newBuilder()
+			.maximumSize(maximumSize)
+			.expireAfterWrite(ttl)
+			.recordStats()
+			.build());
+	}
+
+	static UserCache disabled() {
+		return new UserCache(null);
+	}
+
+	User get(String username, Function<String, User> loader) {
+		if (this.cache == null) {
+			return loader.apply(username);
+		}
+		return this.cache.get(username, key -> Optional.ofNullable(loader.apply(key))).orElse(null);
+	}
+
+	void invalidate(String username) {
+		this.evict(username);
+		this.invalidations.accept(username);
+	}
+
+	void invalidateAll() {
+		this.evictAll();
+		this.invalidations.accept(null);
+	}
+
+	/**
+		* Passes on every invalidation, with {@code null} for all users, so that the other nodes of a cluster can
+		* {@link #evict} the same users.
+		*/
+	void onInvalidate(Consumer<String> invalidations) {
+		this.invalidations = invalidations;
+	}
+
+	/**
+		* Forgets the user without passing it on.
+		*/
+	void evict(String username) {
+		if (this.cache != null) {
+			this.cache.invalidate(username);
+		}
+	}
+
+	void evictAll() {
+		if (this.cache != null) {
+			this.cache.invalidateAll();
+		}
+	}
+
+	boolean isEnabled() {
+		return this.cache != null;
+	}
+
+	CacheStats stats() {
+		return this.cache == null ? CacheStats.empty() : this.cache.stats();
+	}
+}
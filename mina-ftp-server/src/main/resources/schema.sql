@@ -1,7 +1,39 @@
+-- runs at every start (spring.datasource.initialization-mode=always), so every statement must be safe to run again
 create table if not exists ftp_user(
     id serial primary key,
     username varchar(255) not null,
     password varchar (255) not null,
     enabled bool default false,
     admin bool default false
-);
\ No newline at end of file
+);
+
+-- bytes per second, 0 for no limit
+alter table ftp_user add column if not exists max_rate bigint default 0;
+alter table ftp_user add column if not exists max_session_rate bigint default 4800;
+
+-- the nodes of a cluster, and who is logged in on each
+create table if not exists ftp_node(
+    node varchar(255) primary key,
+    heartbeat timestamp not null
+);
+create table if not exists ftp_login(
+    session_id varchar(255) primary key,
+    node varchar(255) not null,
+    username varchar(255) not null,
+    address varchar(255) not null
+);
+create index if not exists ftp_login_username on ftp_login(username);
+
+-- named locks, each held by a live node, like the one that lets one node at a time rebalance the homes
+create table if not exists ftp_lock(
+    name varchar(255) primary key,
+    node varchar(255) not null
+);
+
+-- user cache invalidations, homes being moved and roots added, for databases without LISTEN/NOTIFY
+create table if not exists ftp_cluster_event(
+    id serial primary key,
+    node varchar(255) not null,
+    payload varchar(512) not null,
+    created timestamp not null
+);
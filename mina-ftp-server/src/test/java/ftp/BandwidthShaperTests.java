@@ -0,0 +1,82 @@
+package ftp;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+class BandwidthShaperTests {
+
+	private long millisToRead(BandwidthShaper.Session session, int bytes) throws Exception {
+		var start = System.nanoTime();
+		session.shape(new ByteArrayInputStream(new byte[bytes])).transferTo(OutputStream.nullOutputStream());
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	@Test
+	void limitsSessionsAndPicksUpNewLimits() throws Exception {
+		var shaper = new BandwidthShaper(0);
+		var session = shaper.open("jlong", new BandwidthLimits(0, 100_000));
+		// the first second's worth is a burst, the next 100KB take a second
+		var millis = this.millisToRead(session, 200_000);
+		Assertions.assertTrue(millis >= 800, "took " + millis + "ms");
+		shaper.configure("jlong", BandwidthLimits.UNLIMITED);
+		Assertions.assertTrue(this.millisToRead(session, 10_000_000) < 500);
+		session.close();
+		Assertions.assertTrue(shaper.activeUsers().isEmpty());
+	}
+
+	@Test
+	void limitsASessionThatStartedWithoutLimits() throws Exception {
+		var shaper = new BandwidthShaper(0);
+		var session = shaper.open("jlong", BandwidthLimits.UNLIMITED);
+		Assertions.assertTrue(this.millisToRead(session, 10_000_000) < 500);
+		shaper.configure("jlong", new BandwidthLimits(0, 100_000));
+		var millis = this.millisToRead(session, 200_000);
+		Assertions.assertTrue(millis >= 800, "took " + millis + "ms");
+		session.close();
+	}
+
+	@Test
+	void reportsTheSharesOfTheActiveUsers() throws Exception {
+		var registry = new SimpleMeterRegistry();
+		var shaper = new BandwidthShaper(0);
+		shaper.bindTo(registry);
+		var jlong = shaper.open("jlong", new BandwidthLimits(300_000, 0));
+		var grussell = shaper.open("grussell", new BandwidthLimits(100_000, 0));
+		this.millisToRead(jlong, 30_000);
+		this.millisToRead(grussell, 10_000);
+		shaper.shares();
+		Assertions.assertEquals(0.75, registry.get("ftp.bandwidth.share").tags("user", "jlong", "kind", "actual").gauge().value(), 0.001);
+		Assertions.assertEquals(0.75, registry.get("ftp.bandwidth.share").tags("user", "jlong", "kind", "configured").gauge().value(), 0.001);
+		Assertions.assertEquals(0.25, registry.get("ftp.bandwidth.share").tags("user", "grussell", "kind", "actual").gauge().value(), 0.001);
+		grussell.close();
+		this.millisToRead(jlong, 10_000);
+		shaper.shares();
+		Assertions.assertEquals(1.0, registry.get("ftp.bandwidth.share").tags("user", "jlong", "kind", "actual").gauge().value(), 0.001);
+		Assertions.assertNull(registry.find("ftp.bandwidth.share").tags("user", "grussell").gauge(), "a user who left has no gauges");
+		jlong.close();
+	}
+
+	@Test
+	void sharesTheGlobalLimitFairly() throws Exception {
+		var shaper = new BandwidthShaper(200_000);
+		var bulk = shaper.open("bulk", BandwidthLimits.UNLIMITED);
+		var interactive = shaper.open("interactive", BandwidthLimits.UNLIMITED);
+		var executor = Executors.newSingleThreadExecutor();
+		try {
+			executor.submit(() -> this.millisToRead(bulk, 10_000_000));
+			Thread.sleep(200);
+			// the interactive user's 50KB queues behind no more than a chunk of the bulk download at a time
+			var millis = this.millisToRead(interactive, 50_000);
+			Assertions.assertTrue(millis < 1_500, "took " + millis + "ms");
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+}
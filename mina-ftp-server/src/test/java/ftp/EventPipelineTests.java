@@ -0,0 +1,68 @@
+package ftp;
+
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.integration.config.EnableIntegration;
+import org.springframework.integration.ftp.server.SessionOpenedEvent;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@TestPropertySource(properties = {"ftp.events.capacity=1000", "ftp.events.batch-size=100", "ftp.events.flush-interval=50ms"})
+@SpringJUnitConfig(initializers = EventPipelineTests.Conversions.class)
+class EventPipelineTests {
+
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	@Autowired
+	private MessageChannel eventBatches;
+
+	@Autowired
+	private EventPipelineMetrics metrics;
+
+	@Test
+	void deliversEventsInBatches() throws Exception {
+		var batches = new CopyOnWriteArrayList<List<?>>();
+		((SubscribableChannel) this.eventBatches).subscribe(message -> batches.add((List<?>) message.getPayload()));
+		var session = Mockito.mock(FtpSession.class);
+		for (var i = 0; i < 250; i++) {
+			this.publisher.publishEvent(new SessionOpenedEvent(session));
+		}
+		var deadline = System.currentTimeMillis() + 10_000;
+		while (batches.stream().mapToInt(List::size).sum() < 250 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assertions.assertEquals(250, batches.stream().mapToInt(List::size).sum());
+		Assertions.assertTrue(batches.size() < 250, "the events were batched");
+		Assertions.assertTrue(batches.stream().allMatch(batch -> batch.size() <= 100));
+		Assertions.assertEquals(0, this.metrics.dropped());
+	}
+
+	static class Conversions implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance());
+		}
+	}
+
+	@Configuration
+	@EnableIntegration
+	@Import(IntegrationConfiguration.class)
+	static class Events {
+	}
+}
@@ -0,0 +1,66 @@
+package ftp;
+
+import org.apache.ftpserver.filesystem.nativefs.NativeFileSystemFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+class FileContentCacheTests {
+
+	@TempDir
+	Path home;
+
+	private final FileContentCache cache = FileContentCache.of(1024 * 1024, 1024);
+
+	private MappedFileSystemView view() throws Exception {
+		var user = new BaseUser();
+		user.setName("jlong");
+		user.setHomeDirectory(this.home.toString());
+		user.setAuthorities(Collections.singletonList(new WritePermission()));
+		return new MappedFileSystemView(new NativeFileSystemFactory().createFileSystemView(user), Long.MAX_VALUE, this.cache, null, null);
+	}
+
+	private String read(MappedFileSystemView view, String path, long offset) throws Exception {
+		try (var in = view.getFile(path).createInputStream(offset)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	void servesRepeatedDownloadsFromTheCache() throws Exception {
+		Files.writeString(this.home.resolve("hot.txt"), "hello, world");
+		var view = this.view();
+		Assertions.assertEquals("hello, world", this.read(view, "hot.txt", 0));
+		Assertions.assertEquals("world", this.read(view, "hot.txt", 7));
+		Assertions.assertEquals(1, this.cache.stats().hitCount());
+		Assertions.assertEquals(17, this.cache.bytesServed());
+	}
+
+	@Test
+	void dropsFilesThatAreOverwrittenOrMoved() throws Exception {
+		Files.writeString(this.home.resolve("hot.txt"), "old");
+		var view = this.view();
+		Assertions.assertEquals("old", this.read(view, "hot.txt", 0));
+		try (var out = view.getFile("hot.txt").createOutputStream(0)) {
+			out.write("new".getBytes(StandardCharsets.UTF_8));
+		}
+		Assertions.assertEquals("new", this.read(view, "hot.txt", 0));
+		Assertions.assertTrue(view.getFile("hot.txt").move(view.getFile("moved.txt")));
+		Assertions.assertEquals("new", this.read(view, "moved.txt", 0));
+		Assertions.assertEquals(0, this.cache.stats().hitCount());
+	}
+
+	@Test
+	void leavesLargeFilesOnDisk() throws Exception {
+		Files.write(this.home.resolve("big.bin"), new byte[2048]);
+		Assertions.assertEquals(2048, this.read(this.view(), "big.bin", 0).length());
+		Assertions.assertEquals(0, this.cache.stats().requestCount());
+	}
+}
@@ -0,0 +1,179 @@
+package ftp;
+
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+	* Several nodes in one JVM, sharing an H2 database the way the real ones share PostgreSQL.
+	*/
+class FtpClusterTests {
+
+	private final EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+		.setType(EmbeddedDatabaseType.H2)
+		.generateUniqueName(true)
+		.addScript("classpath:schema.sql")
+		.build();
+	private final FtpUser user = new FtpUser("jlong", "pw", true, List.of(new ConcurrentLoginPermission(3, 2)), -1, null);
+	private final FtpCluster a = this.node("a");
+	private final FtpCluster b = this.node("b");
+
+	FtpClusterTests() {
+		new JdbcTemplate(this.database).update("insert into ftp_user (username, password) values ('jlong', 'pw')");
+	}
+
+	@AfterEach
+	void shutdown() {
+		this.database.shutdown();
+	}
+
+	@Test
+	void limitsLoginsAcrossNodes() {
+		Assertions.assertTrue(this.a.login(this.session("10.0.0.1"), this.user));
+		Assertions.assertTrue(this.b.login(this.session("10.0.0.1"), this.user));
+		Assertions.assertFalse(this.a.login(this.session("10.0.0.1"), this.user), "two logins from one address");
+		var third = this.session("10.0.0.2");
+		Assertions.assertTrue(this.b.login(third, this.user));
+		Assertions.assertFalse(this.a.login(this.session("10.0.0.3"), this.user), "three logins in all");
+		this.b.logout(third);
+		Assertions.assertTrue(this.a.login(this.session("10.0.0.3"), this.user));
+		Assertions.assertEquals(2 / 3.0, this.a.localShares(Set.of("jlong")).get("jlong"), 0.001);
+	}
+
+	@Test
+	void ignoresTheLoginsOfNodesThatStoppedBeating() throws Exception {
+		var alive = new FtpCluster("alive", this.database, Duration.ofMillis(500));
+		var dead = new FtpCluster("dead", this.database, Duration.ofMillis(500));
+		alive.heartbeat();
+		dead.heartbeat();
+		Assertions.assertTrue(dead.login(this.session("10.0.0.1"), this.user));
+		Assertions.assertTrue(dead.login(this.session("10.0.0.2"), this.user));
+		Assertions.assertTrue(alive.login(this.session("10.0.0.3"), this.user));
+		Assertions.assertFalse(alive.login(this.session("10.0.0.4"), this.user));
+		Thread.sleep(600);
+		alive.heartbeat();
+		Assertions.assertTrue(alive.login(this.session("10.0.0.4"), this.user));
+		Assertions.assertEquals(1.0, alive.localShares(Set.of("jlong")).get("jlong"));
+	}
+
+	@Test
+	void invalidatesTheUserOnEveryNode() throws Exception {
+		var caches = List.of(UserCache.of(100, Duration.ofMinutes(1)), UserCache.of(100, Duration.ofMinutes(1)));
+		var a = new ClusterInvalidations("a", this.database, caches.get(0), this.homeShards("a"), Duration.ofMillis(10));
+		var b = new ClusterInvalidations("b", this.database, caches.get(1), this.homeShards("b"), Duration.ofMillis(10));
+		try {
+			var loads = new AtomicInteger();
+			caches.get(1).get("jlong", name -> {
+				loads.incrementAndGet();
+				return this.user;
+			});
+			Thread.sleep(100);
+			caches.get(0).invalidate("jlong");
+			var deadline = System.currentTimeMillis() + 5_000;
+			while (loads.get() < 2) {
+				Assertions.assertTrue(System.currentTimeMillis() < deadline, "node b never heard of the invalidation");
+				Thread.sleep(10);
+				caches.get(1).get("jlong", name -> {
+					loads.incrementAndGet();
+					return this.user;
+				});
+			}
+		}
+		finally {
+			a.destroy();
+			b.destroy();
+		}
+	}
+
+	@Test
+	void letsOneNodeAtATimeHoldALock() throws Exception {
+		Assertions.assertTrue(this.a.tryLock("rebalance-homes"));
+		Assertions.assertTrue(this.a.tryLock("rebalance-homes"), "a node can take its own lock again");
+		Assertions.assertFalse(this.b.tryLock("rebalance-homes"));
+		this.a.unlock("rebalance-homes");
+		Assertions.assertTrue(this.b.tryLock("rebalance-homes"));
+		var alive = new FtpCluster("alive", this.database, Duration.ofMillis(500));
+		var dead = new FtpCluster("dead", this.database, Duration.ofMillis(500));
+		alive.heartbeat();
+		dead.heartbeat();
+		Assertions.assertTrue(dead.tryLock("other"));
+		Assertions.assertFalse(alive.tryLock("other"));
+		Thread.sleep(600);
+		alive.heartbeat();
+		Assertions.assertTrue(alive.tryLock("other"), "the lock of a node that stopped beating is free");
+	}
+
+	@Test
+	void passesRootsAndMovingHomesToEveryNode() throws Exception {
+		var roots = Files.createTempDirectory("ftp-cluster").toFile();
+		var shards = List.of(HomeShards.of(List.of(new File(roots, "a")), 128), HomeShards.of(List.of(new File(roots, "a")), 128));
+		var a = new ClusterInvalidations("a", this.database, UserCache.disabled(), shards.get(0), Duration.ofMillis(50));
+		var b = new ClusterInvalidations("b", this.database, UserCache.disabled(), shards.get(1), Duration.ofMillis(50));
+		try {
+			for (var id = 1; id <= 20; id++) {
+				shards.get(0).home(id);
+			}
+			shards.get(0).addRoot(new File(roots, "b"));
+			var deadline = System.currentTimeMillis() + 5_000;
+			while (shards.get(1).shards().size() < 2) {
+				Assertions.assertTrue(System.currentTimeMillis() < deadline, "node b never heard of the new root");
+				Thread.sleep(10);
+			}
+			var seen = new ArrayList<Boolean>();
+			shards.get(0).rebalance(shards.get(0).misplaced(20), id -> {
+				// asked once the home is marked, and once more after a copy
+				seen.add(shards.get(1).isMoving(shards.get(0).home(id)));
+				return false;
+			}, id -> {
+			});
+			Assertions.assertFalse(seen.isEmpty(), "some homes belong on the new root");
+			Assertions.assertTrue(seen.get(0), "node b turns the user away while their home moves");
+			Thread.sleep(200);
+			for (var id = 1; id <= 20; id++) {
+				Assertions.assertFalse(shards.get(1).isMoving(shards.get(1).home(id)));
+				Assertions.assertEquals(shards.get(0).home(id), shards.get(1).home(id));
+			}
+		}
+		finally {
+			a.destroy();
+			b.destroy();
+			FileSystemUtils.deleteRecursively(roots);
+		}
+	}
+
+	private HomeShards homeShards(String node) throws IOException {
+		return HomeShards.of(List.of(Files.createTempDirectory("ftp-cluster-" + node).toFile()), 128);
+	}
+
+	private FtpCluster node(String name) {
+		var node = new FtpCluster(name, this.database, Duration.ofMinutes(1));
+		node.heartbeat();
+		return node;
+	}
+
+	private FtpSession session(String address) {
+		var session = Mockito.mock(FtpSession.class);
+		Mockito.when(session.getSessionId()).thenReturn(UUID.randomUUID());
+		Mockito.when(session.getClientAddress()).thenReturn(new InetSocketAddress(address, 21));
+		return session;
+	}
+}
@@ -0,0 +1,61 @@
+package ftp;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.impl.DefaultFtpRequest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.List;
+
+class FtpMetricsFtpletTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final FtpMetricsFtplet ftplet = new FtpMetricsFtplet(this.registry, true);
+
+	private FtpSession session() {
+		var attributes = new HashMap<String, Object>();
+		var session = Mockito.mock(FtpSession.class);
+		Mockito.doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1))).when(session).setAttribute(Mockito.anyString(), Mockito.any());
+		Mockito.when(session.getAttribute(Mockito.anyString())).thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+		Mockito.when(session.getUserArgument()).thenReturn("jlong");
+		return session;
+	}
+
+	private void command(FtpSession session, String line, int code) throws Exception {
+		var request = new DefaultFtpRequest(line);
+		this.ftplet.beforeCommand(session, request);
+		this.ftplet.afterCommand(session, request, new DefaultFtpReply(code, "reply"));
+	}
+
+	@Test
+	void timesLoginsAndTransfers() throws Exception {
+		var session = this.session();
+		this.ftplet.onConnect(session);
+		this.command(session, "USER jlong", 331);
+		this.command(session, "PASS pw", 230);
+		Mockito.when(session.getUser()).thenReturn(new FtpUser("jlong", "pw", true, List.of(), -1, null));
+		this.command(session, "STOR a.txt", 226);
+		this.command(session, "RETR b.txt", 550);
+		Assertions.assertEquals(1, this.registry.get("ftp.logins").tag("outcome", "success").timer().count());
+		Assertions.assertEquals(1, this.registry.get("ftp.transfers").tags("direction", "upload", "outcome", "success").timer().count());
+		Assertions.assertEquals(1, this.registry.get("ftp.transfers").tags("direction", "download", "outcome", "failure").timer().count());
+		Assertions.assertEquals(1, this.registry.get("ftp.failures").tag("user", "jlong").counter().count());
+	}
+
+	@Test
+	void countsTheFailuresOfUsersWhoAreNotLoggedInTogether() throws Exception {
+		for (var i = 0; i < 10; i++) {
+			var session = this.session();
+			Mockito.when(session.getUserArgument()).thenReturn("made-up-" + i);
+			this.ftplet.onConnect(session);
+			this.command(session, "USER made-up-" + i, 331);
+			this.command(session, "PASS pw", 530);
+		}
+		Assertions.assertEquals(10, this.registry.get("ftp.failures").tag("user", "anonymous").counter().count());
+		Assertions.assertEquals(1, this.registry.find("ftp.failures").counters().size());
+	}
+}
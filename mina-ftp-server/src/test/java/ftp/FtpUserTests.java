@@ -0,0 +1,36 @@
+package ftp;
+
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.TransferRatePermission;
+import org.apache.ftpserver.usermanager.impl.TransferRateRequest;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.apache.ftpserver.usermanager.impl.WriteRequest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class FtpUserTests {
+
+	private FtpUser user(boolean admin) {
+		var authorities = admin ?
+			List.of(new ConcurrentLoginPermission(20, 2), new TransferRatePermission(4800, 4800), new WritePermission()) :
+			List.of(new ConcurrentLoginPermission(20, 2), new TransferRatePermission(4800, 4800));
+		return new FtpUser("jlong", "pw", true, authorities, -1, null);
+	}
+
+	@Test
+	void authorizesWritesForAdminsOnly() {
+		var request = new WriteRequest();
+		Assertions.assertSame(request, this.user(true).authorize(request));
+		Assertions.assertNull(this.user(false).authorize(request));
+	}
+
+	@Test
+	void authorizesTransferRates() {
+		var request = (TransferRateRequest) this.user(false).authorize(new TransferRateRequest());
+		Assertions.assertNotNull(request);
+		Assertions.assertEquals(4800, request.getMaxDownloadRate());
+		Assertions.assertEquals(1, this.user(true).getAuthorities(WritePermission.class).size());
+	}
+}
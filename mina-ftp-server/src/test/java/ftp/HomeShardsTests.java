@@ -0,0 +1,102 @@
+package ftp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+class HomeShardsTests {
+
+	private final File directory = Files.createTempDirectory("home-shards").toFile();
+
+	HomeShardsTests() throws Exception {
+	}
+
+	@AfterEach
+	void delete() {
+		FileSystemUtils.deleteRecursively(this.directory);
+	}
+
+	@Test
+	void movesOnlyTheHomesThatBelongOnANewRoot() throws Exception {
+		var shards = HomeShards.of(List.of(this.root("a"), this.root("b")), 128);
+		var before = new HashMap<Integer, File>();
+		for (var id = 1; id <= 300; id++) {
+			var home = shards.home(id);
+			Files.writeString(new File(home, "id.txt").toPath(), Integer.toString(id));
+			before.put(id, home);
+		}
+		shards.addRoot(this.root("c"));
+		Assertions.assertEquals(before.get(42), shards.home(42), "nothing moves until the homes are rebalanced");
+		var moved = new ArrayList<Integer>();
+		shards.rebalance(shards.misplaced(Integer.MAX_VALUE), id -> id == 7, moved::add);
+		var expected = IntStream.rangeClosed(1, 300)
+			.filter(id -> id != 7 && shards.shardFor(id).getRoot().equals(this.root("c")))
+			.boxed()
+			.collect(Collectors.toSet());
+		Assertions.assertEquals(expected, Set.copyOf(moved), "every home that belongs on the new root moves");
+		Assertions.assertTrue(shards.misplaced(Integer.MAX_VALUE).stream().allMatch(id -> id == 7), "only the home in use is left");
+		for (var id = 1; id <= 300; id++) {
+			var home = shards.home(id);
+			Assertions.assertEquals(Integer.toString(id), Files.readString(new File(home, "id.txt").toPath()));
+			if (moved.contains(id)) {
+				Assertions.assertEquals(this.root("c"), shards.shardOf(home).getRoot());
+			}
+			else if (id != 7) {
+				Assertions.assertEquals(before.get(id), home, "only the homes that belong on the new root move");
+			}
+		}
+	}
+
+	@Test
+	void findsAndMovesHomesInTheFlatLayout() throws Exception {
+		var legacy = new File(new File(this.root("a"), "42"), "home");
+		Assertions.assertTrue(legacy.mkdirs());
+		var shards = HomeShards.of(List.of(this.root("a")), 128);
+		Assertions.assertEquals(legacy, shards.home(42));
+		Assertions.assertEquals(1, shards.rebalance(shards.misplaced(10), id -> false, id -> {
+		}));
+		Assertions.assertEquals(new File(new File(new File(this.root("a"), "2a"), "42"), "home"), shards.home(42));
+		Assertions.assertFalse(legacy.getParentFile().exists());
+	}
+
+	@Test
+	void triesTheHomesInUseAfterTheOthers() {
+		for (var id = 1; id <= 3; id++) {
+			Assertions.assertTrue(new File(new File(this.root("a"), Integer.toString(id)), "home").mkdirs());
+		}
+		var shards = HomeShards.of(List.of(this.root("a")), 128);
+		Assertions.assertEquals(List.of(1), shards.misplaced(1));
+		Assertions.assertEquals(0, shards.rebalance(shards.misplaced(1), id -> true, id -> {
+		}));
+		Assertions.assertEquals(List.of(2, 3), shards.misplaced(2));
+		Assertions.assertEquals(2, shards.rebalance(shards.misplaced(2), id -> false, id -> {
+		}));
+		Assertions.assertEquals(List.of(1), shards.misplaced(10));
+	}
+
+	@Test
+	void movesTheHomesInABucketNamedLikeALegacyId() throws Exception {
+		var legacy = new File(new File(this.root("a"), "42"), "home");
+		Assertions.assertTrue(legacy.mkdirs());
+		var shards = HomeShards.of(List.of(this.root("a"), this.root("b")), 128);
+		// an id in bucket 42 that belongs on b, put on a as if b had just been added
+		var id = IntStream.iterate(0x42, i -> i + 0x100).filter(i -> shards.shardFor(i).getRoot().equals(this.root("b"))).findFirst().getAsInt();
+		var home = new File(new File(new File(this.root("a"), "42"), Integer.toString(id)), "home");
+		Assertions.assertTrue(home.mkdirs());
+		Assertions.assertEquals(Set.of(42, id), Set.copyOf(shards.misplaced(10)));
+	}
+
+	private File root(String name) {
+		return new File(this.directory, name).getAbsoluteFile();
+	}
+}
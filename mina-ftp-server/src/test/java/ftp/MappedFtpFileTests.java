@@ -0,0 +1,48 @@
+package ftp;
+
+import org.apache.ftpserver.filesystem.nativefs.NativeFileSystemFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+
+class MappedFtpFileTests {
+
+	@TempDir
+	Path home;
+
+	private MappedFileSystemView view() throws Exception {
+		var user = new BaseUser();
+		user.setName("jlong");
+		user.setHomeDirectory(this.home.toString());
+		user.setAuthorities(Collections.singletonList(new WritePermission()));
+		return new MappedFileSystemView(new NativeFileSystemFactory().createFileSystemView(user), 1024, FileContentCache.disabled(), null, null);
+	}
+
+	@Test
+	void readsLargeFilesFromAnOffset() throws Exception {
+		var bytes = new byte[100_000];
+		new Random(42).nextBytes(bytes);
+		Files.write(this.home.resolve("big.bin"), bytes);
+		try (var in = this.view().getFile("big.bin").createInputStream(1000)) {
+			var read = in.readAllBytes();
+			Assertions.assertEquals(bytes.length - 1000, read.length);
+			Assertions.assertEquals(bytes[1000], read[0]);
+			Assertions.assertEquals(bytes[bytes.length - 1], read[read.length - 1]);
+		}
+	}
+
+	@Test
+	void movesOntoAnotherWrappedFile() throws Exception {
+		Files.writeString(this.home.resolve("a.txt"), "hello");
+		var view = this.view();
+		Assertions.assertTrue(view.getFile("a.txt").move(view.getFile("b.txt")));
+		Assertions.assertEquals("hello", Files.readString(this.home.resolve("b.txt")));
+	}
+}
@@ -0,0 +1,34 @@
+package ftp;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+class PasswordVerifierTests {
+
+	private final PasswordVerifier verifier = PasswordVerifier.of("bcrypt", 4, 100, Duration.ofMinutes(1));
+
+	@Test
+	void acceptsPlainPasswordsUntilTheyAreUpgraded() {
+		Assertions.assertTrue(this.verifier.matches("jlong", "pw", "pw"));
+		Assertions.assertFalse(this.verifier.matches("jlong", "nope", "pw"));
+		Assertions.assertTrue(this.verifier.needsUpgrade("pw"));
+		var hashed = this.verifier.encode("pw");
+		Assertions.assertTrue(hashed.startsWith("{bcrypt}"), hashed);
+		Assertions.assertTrue(this.verifier.matches("jlong", "pw", hashed));
+		Assertions.assertFalse(this.verifier.needsUpgrade(hashed));
+		Assertions.assertTrue(PasswordVerifier.of("argon2", 4, 0, Duration.ZERO).needsUpgrade(hashed));
+	}
+
+	@Test
+	void remembersOnlySuccessfulChecksOfTheSameHash() {
+		var hashed = this.verifier.encode("pw");
+		for (var i = 0; i < 3; i++) {
+			Assertions.assertFalse(this.verifier.matches("jlong", "wrong", hashed));
+			Assertions.assertTrue(this.verifier.matches("jlong", "pw", hashed));
+		}
+		Assertions.assertEquals(2, this.verifier.stats().hitCount());
+		Assertions.assertFalse(this.verifier.matches("jlong", "pw", this.verifier.encode("changed")), "a changed password misses the cache");
+	}
+}
@@ -0,0 +1,49 @@
+package ftp;
+
+import org.apache.ftpserver.ftplet.User;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class UserCacheTests {
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	private User load(String name) {
+		this.loads.incrementAndGet();
+		return name.equals("jlong") ? new FtpUser(name, "pw", true, Collections.emptyList(), -1, null) : null;
+	}
+
+	@Test
+	void cachesKnownAndUnknownUsers() {
+		var cache = UserCache.of(100, Duration.ofMinutes(1));
+		for (var i = 0; i < 10; i++) {
+			Assertions.assertNotNull(cache.get("jlong", this::load));
+			Assertions.assertNull(cache.get("nobody", this::load));
+		}
+		Assertions.assertEquals(2, this.loads.get());
+		Assertions.assertEquals(18, cache.stats().hitCount());
+		Assertions.assertEquals(2, cache.stats().missCount());
+	}
+
+	@Test
+	void invalidationForcesReload() {
+		var cache = UserCache.of(100, Duration.ofMinutes(1));
+		cache.get("jlong", this::load);
+		cache.invalidate("jlong");
+		cache.get("jlong", this::load);
+		Assertions.assertEquals(2, this.loads.get());
+	}
+
+	@Test
+	void disabledCacheAlwaysLoads() {
+		var cache = UserCache.disabled();
+		cache.get("jlong", this::load);
+		cache.get("jlong", this::load);
+		Assertions.assertEquals(2, this.loads.get());
+		Assertions.assertFalse(cache.isEnabled());
+	}
+}